@@ -0,0 +1,240 @@
+package com.inedo.proget.api;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+import org.apache.commons.io.output.CountingOutputStream;
+
+/**
+ * A zip entry whose data has already been compressed, either held in memory or, for large files, in a temporary
+ * segment file.  This allows entries to be compressed in parallel and then written to the package in order.
+ *
+ * Stored (uncompressed) entries keep a reference to the source file and copy it as they are written, checking it still
+ * has the size and CRC recorded in the entry's header.  Entries reused from a previous build copy their data from that
+ * package.
+ *
+ * @author Andrew Sumner
+ */
+class CompressedEntry {
+    static final int STORED = 0;
+    static final int DEFLATED = 8;
+
+    /** Files larger than this are compressed to a temporary file rather than held in memory */
+    static final long MEMORY_THRESHOLD = 4 * 1024 * 1024;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    final String name;
+    final long time;
+    int method = DEFLATED;
+    long crc;
+    long size;
+    long compressedSize;
+
+    private byte[] data;
+    private File file;
+    private boolean temporary;
+    private FileChannel channel;
+    private long channelOffset;
+
+    private CompressedEntry(String name, long time) {
+        this.name = name;
+        this.time = time;
+    }
+
+    /**
+     * Compress a file.
+     *
+     * @param file Source file
+     * @param name Name of the entry in the package
+     * @param level Deflate level, or {@link Deflater#NO_COMPRESSION} to store the file as is
+     * @return Compressed entry, call {@link #release()} once written
+     */
+    static CompressedEntry deflate(File file, String name, int level) throws IOException {
+        CompressedEntry entry = new CompressedEntry(name, file.lastModified());
+
+        if (level == Deflater.NO_COMPRESSION) {
+            entry.store(file);
+        } else if (file.length() > MEMORY_THRESHOLD) {
+            entry.file = File.createTempFile("proget", ".segment");
+            entry.temporary = true;
+
+            try (OutputStream out = new FileOutputStream(entry.file)) {
+                entry.deflate(file, out, level);
+            } catch (IOException | RuntimeException e) {
+                entry.release();
+                throw e;
+            }
+        } else {
+            ByteArrayOutputStream out = new ByteArrayOutputStream((int) Math.max(32, file.length() / 2));
+
+            entry.deflate(file, out, level);
+            entry.data = out.toByteArray();
+        }
+
+        return entry;
+    }
+
+    /** Compress an in memory entry, eg upack.json */
+    static CompressedEntry deflate(byte[] content, String name, long time) throws IOException {
+        CompressedEntry entry = new CompressedEntry(name, time);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        try (InputStream in = new ByteArrayInputStream(content)) {
+            entry.deflate(in, out, Deflater.DEFAULT_COMPRESSION);
+        }
+
+        entry.data = out.toByteArray();
+
+        return entry;
+    }
+
+    /**
+     * An entry whose compressed data is copied from a region of an existing package.
+     */
+    static CompressedEntry copyOf(String name, long time, int method, long crc, long size, long compressedSize, FileChannel source, long offset) {
+        CompressedEntry entry = new CompressedEntry(name, time);
+
+        entry.method = method;
+        entry.crc = crc;
+        entry.size = size;
+        entry.compressedSize = compressedSize;
+        entry.channel = source;
+        entry.channelOffset = offset;
+
+        return entry;
+    }
+
+    /** Calculate the CRC-32 of a file */
+    static long checksum(File file) throws IOException {
+        CRC32 checksum = new CRC32();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int len;
+
+        try (InputStream in = new FileInputStream(file)) {
+            while ((len = in.read(buffer)) > 0) {
+                checksum.update(buffer, 0, len);
+            }
+        }
+
+        return checksum.getValue();
+    }
+
+    private void store(File source) throws IOException {
+        this.method = STORED;
+        this.size = source.length();
+        this.crc = checksum(source);
+        this.compressedSize = size;
+        this.file = source;
+    }
+
+    private void deflate(File source, OutputStream out, int level) throws IOException {
+        try (InputStream in = new FileInputStream(source)) {
+            deflate(in, out, level);
+        }
+    }
+
+    private void deflate(InputStream in, OutputStream out, int level) throws IOException {
+        Deflater deflater = new Deflater(level, true);
+        CRC32 checksum = new CRC32();
+        CountingOutputStream counter = new CountingOutputStream(out);
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long read = 0;
+        int len;
+
+        try {
+            DeflaterOutputStream dos = new DeflaterOutputStream(counter, deflater, BUFFER_SIZE);
+
+            while ((len = in.read(buffer)) > 0) {
+                checksum.update(buffer, 0, len);
+                dos.write(buffer, 0, len);
+                read += len;
+            }
+
+            dos.finish();
+        } finally {
+            deflater.end();
+        }
+
+        this.method = DEFLATED;
+        this.crc = checksum.getValue();
+        this.size = read;
+        this.compressedSize = counter.getByteCount();
+    }
+
+    /** Write the compressed data */
+    void writeDataTo(OutputStream out) throws IOException {
+        if (data != null) {
+            out.write(data);
+            return;
+        }
+
+        long written = 0;
+
+        if (channel != null) {
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            int len;
+
+            while (written < compressedSize) {
+                buffer.clear().limit((int) Math.min(buffer.capacity(), compressedSize - written));
+
+                if ((len = channel.read(buffer, channelOffset + written)) <= 0) {
+                    break;
+                }
+
+                out.write(buffer.array(), 0, len);
+                written += len;
+            }
+
+            if (written != compressedSize) {
+                throw new IOException("Cached package is shorter than expected");
+            }
+
+            return;
+        }
+
+        // The header holding the CRC of a stored file has already been written, so check the file hasn't changed since
+        CRC32 checksum = method == STORED ? new CRC32() : null;
+
+        try (InputStream in = new FileInputStream(file)) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int len;
+
+            while (written < compressedSize && (len = in.read(buffer, 0, (int) Math.min(buffer.length, compressedSize - written))) > 0) {
+                if (checksum != null) {
+                    checksum.update(buffer, 0, len);
+                }
+
+                out.write(buffer, 0, len);
+                written += len;
+            }
+        }
+
+        if (written != compressedSize || (checksum != null && (checksum.getValue() != crc || file.length() != size || file.lastModified() != time))) {
+            throw new IOException("File " + file + " changed while it was being packaged");
+        }
+    }
+
+    /** Free any memory or temporary files held by this entry */
+    void release() {
+        data = null;
+
+        if (temporary && file != null) {
+            file.delete();
+        }
+
+        file = null;
+        channel = null;
+    }
+}
@@ -0,0 +1,117 @@
+package com.inedo.proget.api;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.zip.Deflater;
+
+/**
+ * Decides how each file should be compressed: files that are already compressed (archives, images, media etc) gain
+ * nothing from being deflated again so are stored as is, everything else is deflated at the configured level.
+ *
+ * @author Andrew Sumner
+ */
+public class CompressionPolicy implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private static final Set<String> COMPRESSED_EXTENSIONS = new HashSet<>(Arrays.asList(
+            "7z", "apk", "bz2", "cab", "docx", "ear", "gif", "gz", "jar", "jpeg", "jpg", "lz4", "mp3", "mp4",
+            "nupkg", "png", "pptx", "rar", "tgz", "upack", "war", "webp", "whl", "xlsx", "xz", "zip", "zst"));
+
+    /** Bytes read from files with unknown extensions to estimate whether they are compressible */
+    private static final int SAMPLE_SIZE = 16 * 1024;
+
+    /** Shannon entropy (bits per byte) above which a sample is considered to be already compressed */
+    private static final double ENTROPY_THRESHOLD = 7.5;
+
+    /** Don't bother sampling files this small, they're deflated regardless */
+    private static final long MIN_SAMPLE_FILE_SIZE = 4 * 1024;
+
+    private final int level;
+    private final boolean storeCompressedFiles;
+
+    /**
+     * @param level Deflate level, see {@link Deflater}
+     * @param storeCompressedFiles If true files that appear to already be compressed are stored rather than deflated
+     */
+    public CompressionPolicy(int level, boolean storeCompressedFiles) {
+        this.level = level;
+        this.storeCompressedFiles = storeCompressedFiles;
+    }
+
+    /** Deflates every file at the default level */
+    public static CompressionPolicy defaultPolicy() {
+        return new CompressionPolicy(Deflater.DEFAULT_COMPRESSION, false);
+    }
+
+    /** Identifies these settings, compressed data can only be reused by a build using the same settings */
+    String key() {
+        return level + ":" + storeCompressedFiles;
+    }
+
+    /**
+     * @return The deflate level to use for the file, {@link Deflater#NO_COMPRESSION} if it should be stored as is
+     */
+    int levelFor(File file) throws IOException {
+        if (level == Deflater.NO_COMPRESSION) {
+            return level;
+        }
+
+        if (storeCompressedFiles && isAlreadyCompressed(file)) {
+            return Deflater.NO_COMPRESSION;
+        }
+
+        return level;
+    }
+
+    static boolean isAlreadyCompressed(File file) throws IOException {
+        String name = file.getName();
+        int dot = name.lastIndexOf('.');
+
+        if (dot >= 0 && COMPRESSED_EXTENSIONS.contains(name.substring(dot + 1).toLowerCase(Locale.ENGLISH))) {
+            return true;
+        }
+
+        if (file.length() < MIN_SAMPLE_FILE_SIZE) {
+            return false;
+        }
+
+        return sampleEntropy(file) > ENTROPY_THRESHOLD;
+    }
+
+    private static double sampleEntropy(File file) throws IOException {
+        byte[] sample = new byte[SAMPLE_SIZE];
+        int length = 0;
+
+        try (InputStream in = new FileInputStream(file)) {
+            int read;
+
+            while (length < sample.length && (read = in.read(sample, length, sample.length - length)) > 0) {
+                length += read;
+            }
+        }
+
+        int[] counts = new int[256];
+
+        for (int i = 0; i < length; i++) {
+            counts[sample[i] & 0xFF]++;
+        }
+
+        double entropy = 0;
+
+        for (int count : counts) {
+            if (count > 0) {
+                double p = (double) count / length;
+                entropy -= p * Math.log(p) / Math.log(2);
+            }
+        }
+
+        return entropy;
+    }
+}
@@ -0,0 +1,177 @@
+package com.inedo.proget.api;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A lock on a piece of cached package content, held shared by every build using the content and taken exclusively to
+ * evict it, so content is never deleted from under a build running in this or another process on the agent.
+ *
+ * Each content has its own lock file.  File locks are held by the whole JVM rather than a thread, so builds in the
+ * same process share the one file lock and only the last of them to finish releases it.  When content is evicted its
+ * lock file is marked as dead before it's deleted, a build that was waiting on the file then tries again with a new one.
+ *
+ * @author Andrew Sumner
+ */
+class ContentLock implements Closeable {
+    private static final Map<Path, Holder> HELD = new HashMap<>();
+    private static final byte[] DEAD = new byte[] { 1 };
+
+    private final Path path;
+    private Holder holder;
+
+    private ContentLock(Path path, Holder holder) {
+        this.path = path;
+        this.holder = holder;
+    }
+
+    /**
+     * Lock the content for use, waiting for any eviction in progress to finish.
+     *
+     * @param lockFile The content's lock file
+     * @return The lock, must be closed once the content is no longer in use
+     */
+    static ContentLock acquire(Path lockFile) throws IOException {
+        Path path = lockFile.toAbsolutePath().normalize();
+
+        synchronized (HELD) {
+            Holder holder = HELD.get(path);
+
+            if (holder == null) {
+                holder = lockShared(path);
+                HELD.put(path, holder);
+            }
+
+            holder.users++;
+
+            return new ContentLock(path, holder);
+        }
+    }
+
+    /**
+     * Delete the content if nothing is using it.
+     *
+     * @param lockFile The content's lock file
+     * @param deleter Deletes the content, returning false if it couldn't be deleted
+     * @return True if the content was deleted, false if it is in use or couldn't be deleted
+     */
+    static boolean evict(Path lockFile, Deleter deleter) throws IOException {
+        Path path = lockFile.toAbsolutePath().normalize();
+
+        synchronized (HELD) {
+            if (HELD.containsKey(path)) {
+                return false;
+            }
+
+            Files.createDirectories(path.getParent());
+
+            try (FileChannel channel = open(path)) {
+                FileLock lock = channel.tryLock(0, Long.MAX_VALUE, false);
+
+                if (lock == null || channel.size() > 0 || !deleter.delete()) {
+                    return false;
+                }
+
+                channel.write(ByteBuffer.wrap(DEAD));
+
+                if (!path.toFile().delete()) {
+                    // The file stays in use, waiting builds will find the content has gone
+                    channel.truncate(0);
+                }
+
+                return true;
+            } catch (AccessDeniedException e) {
+                // Being deleted by another process
+                return false;
+            }
+        }
+    }
+
+    private static Holder lockShared(Path path) throws IOException {
+        for (int attempt = 0;; attempt++) {
+            Files.createDirectories(path.getParent());
+
+            FileChannel channel;
+
+            try {
+                channel = open(path);
+            } catch (AccessDeniedException e) {
+                // Windows refuses to open a file that is being deleted until the last handle to it is closed
+                if (attempt >= 100) {
+                    throw e;
+                }
+
+                pause();
+                continue;
+            }
+
+            try {
+                channel.lock(0, Long.MAX_VALUE, true);
+
+                if (channel.size() == 0) {
+                    return new Holder(channel);
+                }
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+
+            // The content was evicted while waiting, the next attempt gets a new lock file
+            channel.close();
+        }
+    }
+
+    private static FileChannel open(Path path) throws IOException {
+        return FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    private static void pause() throws InterruptedIOException {
+        try {
+            Thread.sleep(10);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the package cache");
+        }
+    }
+
+    /** Release the lock, once every user has released it the content can be evicted */
+    @Override
+    public void close() throws IOException {
+        synchronized (HELD) {
+            if (holder == null) {
+                return;
+            }
+
+            Holder released = holder;
+            holder = null;
+
+            if (--released.users == 0) {
+                HELD.remove(path);
+                released.channel.close();
+            }
+        }
+    }
+
+    interface Deleter {
+        boolean delete();
+    }
+
+    private static class Holder {
+        final FileChannel channel;
+        int users = 0;
+
+        Holder(FileChannel channel) {
+            this.channel = channel;
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package com.inedo.proget.api;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates named daemon threads so worker pools never keep a Jenkins agent JVM alive.
+ *
+ * @author Andrew Sumner
+ */
+public class DaemonThreadFactory implements ThreadFactory {
+    private final String name;
+    private final AtomicInteger count = new AtomicInteger();
+
+    public DaemonThreadFactory(String name) {
+        this.name = name;
+    }
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, name + " " + count.incrementAndGet());
+        thread.setDaemon(true);
+
+        return thread;
+    }
+}
@@ -0,0 +1,130 @@
+package com.inedo.proget.api;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+
+import com.inedo.proget.api.ProGetPackager.ZipItem;
+
+/**
+ * The files to package, held compactly so that very large file trees don't exhaust the agent's heap.
+ *
+ * Each folder is stored once, and each file holds just its name and the index of its folder.  The
+ * {@link ZipItem}s are created on demand as the list is read, so they can be discarded once the file has been
+ * packaged.
+ *
+ * Files must be added from a single thread, once built the list may be read from any thread.
+ *
+ * @author Andrew Sumner
+ */
+class FileList extends AbstractList<ZipItem> {
+    private static final int ROOT = 0;
+
+    private final TrimFolders trimFolders;
+    private final char separator;
+    private final char packageSeparator;
+
+    private int[] folderParent = new int[16];
+    private String[] folderName = new String[16];
+    private int folderCount = 0;
+
+    private int[] fileFolder = new int[64];
+    private String[] fileName = new String[64];
+    private int fileCount = 0;
+
+    /** Paths of the folder of the last item read, as files are usually read in order this is mostly a cache hit */
+    private volatile FolderPath lastFolder = null;
+
+    /**
+     * @param trimFolders Folders to remove from the start of the package path
+     * @param separator Separator used by the source paths
+     * @param packageSeparator Separator to use in the package
+     */
+    FileList(TrimFolders trimFolders, char separator, char packageSeparator) {
+        this.trimFolders = trimFolders;
+        this.separator = separator;
+        this.packageSeparator = packageSeparator;
+
+        addFolder(-1, "");
+    }
+
+    /** The base folder that all paths are relative to */
+    int root() {
+        return ROOT;
+    }
+
+    /**
+     * @return Index of the new folder
+     */
+    int addFolder(int parent, String name) {
+        if (folderCount == folderName.length) {
+            int capacity = folderCount + (folderCount >> 1);
+
+            folderParent = Arrays.copyOf(folderParent, capacity);
+            folderName = Arrays.copyOf(folderName, capacity);
+        }
+
+        folderParent[folderCount] = parent;
+        folderName[folderCount] = name;
+
+        return folderCount++;
+    }
+
+    void addFile(int folder, String name) {
+        if (fileCount == fileName.length) {
+            int capacity = fileCount + (fileCount >> 1);
+
+            fileFolder = Arrays.copyOf(fileFolder, capacity);
+            fileName = Arrays.copyOf(fileName, capacity);
+        }
+
+        fileFolder[fileCount] = folder;
+        fileName[fileCount] = name;
+        fileCount++;
+    }
+
+    @Override
+    public ZipItem get(int index) {
+        if (index < 0 || index >= fileCount) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + fileCount);
+        }
+
+        FolderPath folder = folderPath(fileFolder[index]);
+        String name = fileName[index];
+
+        return new ZipItem(folder.source + name, folder.destination + name);
+    }
+
+    @Override
+    public int size() {
+        return fileCount;
+    }
+
+    private FolderPath folderPath(int folder) {
+        FolderPath path = lastFolder;
+
+        if (path == null || path.folder != folder) {
+            StringBuilder source = new StringBuilder();
+
+            for (int i = folder; i != ROOT; i = folderParent[i]) {
+                source.insert(0, separator).insert(0, folderName[i]);
+            }
+
+            path = new FolderPath(folder, source.toString(), trimFolders.toPackagePath(source.toString(), packageSeparator));
+            lastFolder = path;
+        }
+
+        return path;
+    }
+
+    private static class FolderPath {
+        final int folder;
+        final String source;
+        final String destination;
+
+        FolderPath(int folder, String source, String destination) {
+            this.folder = folder;
+            this.source = source;
+            this.destination = destination;
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.inedo.proget.api;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Remembers the latest version of packages looked up in ProGet, so that resolving "latest" for a package that was
+ * recently looked up doesn't need to ask ProGet again.  Once an entry expires the ETag it was returned with lets it be
+ * revalidated with a conditional request rather than fetched again.
+ *
+ * @author Andrew Sumner
+ */
+class LatestVersionCache {
+    private static final Map<String, Entry> CACHE = new ConcurrentHashMap<>();
+
+    private LatestVersionCache() {
+    }
+
+    /** Users may see different packages, so the key includes a hash of the credentials */
+    static String key(ProGetConfig config, String feedName, String groupName, String packageName) {
+        return String.join("\n", config.url, ProGetClient.hashCredentials(config), feedName, groupName == null ? "" : groupName, packageName);
+    }
+
+    static Entry get(String key) {
+        return CACHE.get(key);
+    }
+
+    static void put(String key, String version, String etag, long ttlMillis) {
+        CACHE.put(key, new Entry(version, etag, System.currentTimeMillis() + ttlMillis));
+    }
+
+    static void clear() {
+        CACHE.clear();
+    }
+
+    static class Entry {
+        final String version;
+        final String etag;
+        final long expires;
+
+        Entry(String version, String etag, long expires) {
+            this.version = version;
+            this.etag = etag;
+            this.expires = expires;
+        }
+
+        boolean isExpired() {
+            return System.currentTimeMillis() >= expires;
+        }
+    }
+}
@@ -0,0 +1,491 @@
+package com.inedo.proget.api;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * A cache of downloaded packages kept on an agent so that the same package version isn't downloaded again by every
+ * build.
+ *
+ * Package content is stored once under its SHA-256 hash, and each feed/group/package/version/format key records which
+ * content it refers to.  Every file is written to a temporary file and renamed into place so builds running at the
+ * same time on the agent never see a partially written entry.  When the cache grows beyond its size limit the least
+ * recently used content is removed.
+ *
+ * The extracted content of a package can also be kept, under the same hash, so that it can be linked into a
+ * workspace rather than being inflated again by every build.  Extracted files are made read only as they share their
+ * content with every workspace linked to them.  That doesn't stop a tool that changes a file's permissions writing
+ * through a link, so before a tree is reused each file's size and checksum is compared with the package and a damaged
+ * tree is extracted again.
+ *
+ * A build holds a shared {@link ContentLock} on the content it uses until it closes the {@link CachedPackage}, and
+ * eviction skips any content that is locked, so content is never deleted while a build is reading, extracting or
+ * linking it.
+ *
+ * @author Andrew Sumner
+ */
+public class PackageCache {
+    private static final String CONTENT = "content";
+    private static final String KEYS = "keys";
+    private static final String EXTRACTED = "extracted";
+    private static final String TEMP = "temp";
+    private static final String LOCKS = "locks";
+    private static final long ABANDONED_AGE = 24 * 60 * 60 * 1000L;
+
+    private final File folder;
+    private final long maxSize;
+
+    /**
+     * @param folder Folder to keep the cache in
+     * @param maxSize Maximum size of the cached content in bytes
+     */
+    public PackageCache(File folder, long maxSize) {
+        this.folder = folder;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * A version can only be cached once it is known, "latest" may change between builds.
+     */
+    public static boolean isCacheable(String version) {
+        return !ProGetApi.isLatest(version);
+    }
+
+    /**
+     * Look up a package.
+     *
+     * @return The cached package, which must be closed once it's no longer in use, or null if it isn't in the cache
+     */
+    public CachedPackage get(String feedName, String groupName, String packageName, String version, String format) throws IOException {
+        File keyFile = keyFile(feedName, groupName, packageName, version, format);
+
+        if (!keyFile.isFile()) {
+            return null;
+        }
+
+        String hash;
+        String fileName;
+        long size;
+
+        try (BufferedReader reader = Files.newBufferedReader(keyFile.toPath(), StandardCharsets.UTF_8)) {
+            hash = reader.readLine();
+            fileName = reader.readLine();
+            size = Long.parseLong(reader.readLine());
+        } catch (IOException | RuntimeException e) {
+            // Damaged entry, download again
+            keyFile.delete();
+            return null;
+        }
+
+        File content = new File(new File(folder, CONTENT), hash);
+
+        if (content.length() != size) {
+            keyFile.delete();
+            return null;
+        }
+
+        ContentLock lock = lock(hash);
+
+        // Checked again in case the content was evicted before it was locked
+        if (content.length() != size) {
+            lock.close();
+            keyFile.delete();
+            return null;
+        }
+
+        // Last modified time is used to find the least recently used content
+        content.setLastModified(System.currentTimeMillis());
+
+        return new CachedPackage(content, fileName, lock);
+    }
+
+    /**
+     * A folder to download to before calling {@link #put}, being in the cache folder the download can be moved into
+     * the cache rather than copied.
+     */
+    public File createTempFolder() throws IOException {
+        File temp = new File(folder, TEMP);
+
+        if (!temp.isDirectory() && !temp.mkdirs()) {
+            throw new IOException("Unable to create package cache folder " + temp);
+        }
+
+        return Files.createTempDirectory(temp.toPath(), "download").toFile();
+    }
+
+    /**
+     * Move a downloaded package into the cache.
+     *
+     * @return The cached package, must be closed once it's no longer in use
+     */
+    public CachedPackage put(String feedName, String groupName, String packageName, String version, String format, File downloaded) throws IOException {
+        String hash = sha256(downloaded);
+        File contentFolder = new File(folder, CONTENT);
+        File content = new File(contentFolder, hash);
+        File keyFile = keyFile(feedName, groupName, packageName, version, format);
+
+        if (!contentFolder.isDirectory() && !contentFolder.mkdirs()) {
+            throw new IOException("Unable to create package cache folder " + contentFolder);
+        }
+
+        if (!keyFile.getParentFile().isDirectory() && !keyFile.getParentFile().mkdirs()) {
+            throw new IOException("Unable to create package cache folder " + keyFile.getParentFile());
+        }
+
+        long size = downloaded.length();
+        // Locked before it's moved into place so a concurrent eviction can't remove it
+        ContentLock lock = lock(hash);
+
+        try {
+            if (content.length() == size) {
+                // Same content is already cached under another key, or by a concurrent build
+                downloaded.delete();
+                content.setLastModified(System.currentTimeMillis());
+            } else {
+                move(downloaded.toPath(), content.toPath());
+            }
+
+            File temp = File.createTempFile("key", ".tmp", keyFile.getParentFile());
+
+            try (BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(temp.toPath()), StandardCharsets.UTF_8))) {
+                writer.write(hash);
+                writer.newLine();
+                writer.write(downloaded.getName());
+                writer.newLine();
+                writer.write(Long.toString(size));
+                writer.newLine();
+            }
+
+            move(temp.toPath(), keyFile.toPath());
+
+            evict();
+        } catch (IOException | RuntimeException e) {
+            lock.close();
+            throw e;
+        }
+
+        return new CachedPackage(content, downloaded.getName(), lock);
+    }
+
+    /**
+     * Get the extracted content of a cached package, extracting it into the cache if this is the first time it's been
+     * asked for.
+     *
+     * @param pkg A package returned by {@link #get} or {@link #put} that has not been closed
+     * @param threads Number of threads to extract with
+     * @return Folder holding the package content, must not be modified and is only kept while the package is open
+     */
+    public File getExtracted(CachedPackage pkg, int threads) throws IOException {
+        File extractedFolder = new File(folder, EXTRACTED);
+        File tree = new File(extractedFolder, pkg.getContent().getName());
+
+        if (tree.isDirectory()) {
+            if (isIntact(pkg.getContent(), tree)) {
+                return tree;
+            }
+
+            discard(tree);
+        }
+
+        if (!extractedFolder.isDirectory() && !extractedFolder.mkdirs()) {
+            throw new IOException("Unable to create package cache folder " + extractedFolder);
+        }
+
+        File temp = createTempFolder();
+
+        try {
+            new PackageExtractor(threads).extract(pkg.getContent(), temp);
+
+            long size = makeReadOnly(temp);
+
+            try (BufferedWriter writer = Files.newBufferedWriter(sizeFile(tree).toPath(), StandardCharsets.UTF_8)) {
+                writer.write(Long.toString(size));
+            }
+
+            Files.move(temp.toPath(), tree.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            if (!tree.isDirectory()) {
+                throw e;
+            }
+
+            // Another build extracted the package at the same time
+        } finally {
+            deleteFolder(temp);
+        }
+
+        evict();
+
+        return tree;
+    }
+
+    /** True if every file in the tree still has the size and checksum of its entry in the package */
+    private static boolean isIntact(File pkg, File tree) throws IOException {
+        Map<String, ZipEntry> entries = new HashMap<>();
+
+        try (ZipFile archive = new ZipFile(pkg)) {
+            Enumeration<? extends ZipEntry> e = archive.entries();
+
+            while (e.hasMoreElements()) {
+                ZipEntry entry = e.nextElement();
+                String name = PackageExtractor.toExtractedName(entry);
+
+                // If the same file appears twice the last one written wins
+                if (name != null && !entry.isDirectory()) {
+                    entries.put(name, entry);
+                }
+            }
+        }
+
+        for (Map.Entry<String, ZipEntry> entry : entries.entrySet()) {
+            File file = SyncManifest.resolve(tree, entry.getKey());
+
+            if (file == null || !file.isFile() || file.length() != entry.getValue().getSize() || CompressedEntry.checksum(file) != entry.getValue().getCrc()) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /** Move a damaged tree out of the way before deleting it, so it is never seen half deleted */
+    private void discard(File tree) throws IOException {
+        File trash = createTempFolder();
+
+        try {
+            Files.move(tree.toPath(), new File(trash, tree.getName()).toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (NoSuchFileException e) {
+            // Already discarded by another build
+        } finally {
+            deleteFolder(trash);
+        }
+    }
+
+    private static long makeReadOnly(File file) {
+        File[] children = file.listFiles();
+
+        if (children == null) {
+            file.setReadOnly();
+            return file.length();
+        }
+
+        long size = 0;
+
+        for (File child : children) {
+            size += makeReadOnly(child);
+        }
+
+        return size;
+    }
+
+    private static File sizeFile(File tree) {
+        return new File(tree.getPath() + ".size");
+    }
+
+    /** Size of a content's extracted tree, or 0 if it hasn't been extracted */
+    private static long extractedSize(File tree) {
+        try {
+            return Long.parseLong(new String(Files.readAllBytes(sizeFile(tree).toPath()), StandardCharsets.UTF_8).trim());
+        } catch (IOException | NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Remove the least recently used content that no build is using until the cache is within its size limit, along
+     * with any downloads abandoned by builds that failed.
+     */
+    private void evict() throws IOException {
+        File[] abandoned = new File(folder, TEMP).listFiles(file -> file.lastModified() < System.currentTimeMillis() - ABANDONED_AGE);
+
+        if (abandoned != null) {
+            for (File download : abandoned) {
+                deleteFolder(download);
+            }
+        }
+
+        File[] files = new File(folder, CONTENT).listFiles();
+
+        if (files == null) {
+            return;
+        }
+
+        List<File> content = new ArrayList<>();
+        File extractedFolder = new File(folder, EXTRACTED);
+        long total = 0;
+
+        for (File file : files) {
+            content.add(file);
+            total += file.length() + extractedSize(new File(extractedFolder, file.getName()));
+        }
+
+        content.sort(Comparator.comparingLong(File::lastModified));
+
+        for (File file : content) {
+            if (total <= maxSize) {
+                break;
+            }
+
+            File tree = new File(extractedFolder, file.getName());
+            long length = file.length() + extractedSize(tree);
+
+            // Keys referring to deleted content are discarded when next read
+            boolean deleted = ContentLock.evict(lockFile(file.getName()), () -> {
+                if (!file.delete()) {
+                    return false;
+                }
+
+                deleteFolder(tree);
+                sizeFile(tree).delete();
+                return true;
+            });
+
+            if (deleted) {
+                total -= length;
+            }
+        }
+    }
+
+    private static void deleteFolder(File file) {
+        File[] children = file.listFiles();
+
+        if (children != null) {
+            for (File child : children) {
+                deleteFolder(child);
+            }
+        }
+
+        // Read only files can't be deleted on Windows, elsewhere making the file writable would also make every hard
+        // link to it writable
+        if (!file.delete()) {
+            file.setWritable(true);
+            file.delete();
+        }
+    }
+
+    private ContentLock lock(String hash) throws IOException {
+        return ContentLock.acquire(lockFile(hash));
+    }
+
+    private Path lockFile(String hash) {
+        return new File(new File(folder, LOCKS), hash).toPath();
+    }
+
+    private File keyFile(String feedName, String groupName, String packageName, String version, String format) {
+        String key = String.join("\n", feedName, groupName == null ? "" : groupName, packageName, version, format);
+
+        return new File(new File(folder, KEYS), sha256(key.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static void move(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static String sha256(File file) throws IOException {
+        MessageDigest digest = newDigest();
+
+        try (InputStream in = new FileInputStream(file)) {
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+
+            while (-1 != (read = in.read(buffer))) {
+                digest.update(buffer, 0, read);
+            }
+        }
+
+        return toHex(digest.digest());
+    }
+
+    private static String sha256(byte[] value) {
+        return toHex(newDigest().digest(value));
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+
+        return hex.toString();
+    }
+
+    /** A package held in the cache, it can't be evicted until it is closed */
+    public static class CachedPackage implements Closeable {
+        private final File content;
+        private final String fileName;
+        private final ContentLock lock;
+
+        CachedPackage(File content, String fileName, ContentLock lock) {
+            this.content = content;
+            this.fileName = fileName;
+            this.lock = lock;
+        }
+
+        /** The cached file, must not be modified */
+        public File getContent() {
+            return content;
+        }
+
+        /** The name the package was downloaded as */
+        public String getFileName() {
+            return fileName;
+        }
+
+        /**
+         * Copy the package to a folder.
+         *
+         * @return The copy
+         */
+        public File copyTo(File folder) throws IOException {
+            File target = new File(folder, fileName);
+
+            if (!folder.isDirectory() && !folder.mkdirs()) {
+                throw new IOException("Unable to create folder " + folder);
+            }
+
+            Files.copy(content.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+            return target;
+        }
+
+        /** Release the package so it can be evicted */
+        @Override
+        public void close() throws IOException {
+            lock.close();
+        }
+    }
+}
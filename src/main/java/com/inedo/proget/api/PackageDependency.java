@@ -0,0 +1,78 @@
+package com.inedo.proget.api;
+
+import java.io.Serializable;
+import java.util.Locale;
+
+/**
+ * A dependency listed in the upack.json file of a universal package, formatted as <code>group:name</code> or
+ * <code>group:name:version</code>.  When the version is not specified, the latest is used.
+ *
+ * @author Andrew Sumner
+ */
+public class PackageDependency implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final String group;
+    private final String name;
+    private final String version;
+
+    public PackageDependency(String group, String name, String version) {
+        this.group = group == null ? "" : group;
+        this.name = name;
+        this.version = version == null || version.isEmpty() ? "latest" : version;
+    }
+
+    /**
+     * Parse a dependency.  A dependency without a group is accepted as just the package name.
+     *
+     * @param dependency Package identification string
+     * @return The dependency
+     * @throws IllegalArgumentException If the dependency is not a package identification string
+     */
+    public static PackageDependency parse(String dependency) {
+        String[] parts = dependency.trim().split(":", -1);
+
+        for (String part : parts) {
+            if (part.trim().isEmpty() && parts.length > 1) {
+                throw new IllegalArgumentException("Invalid dependency '" + dependency + "'");
+            }
+        }
+
+        switch (parts.length) {
+        case 1:
+            if (parts[0].isEmpty()) {
+                throw new IllegalArgumentException("Invalid dependency '" + dependency + "'");
+            }
+
+            return new PackageDependency("", parts[0], null);
+        case 2:
+            return new PackageDependency(parts[0].trim(), parts[1].trim(), null);
+        case 3:
+            return new PackageDependency(parts[0].trim(), parts[1].trim(), parts[2].trim());
+        default:
+            throw new IllegalArgumentException("Invalid dependency '" + dependency + "'");
+        }
+    }
+
+    public String getGroup() {
+        return group;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getVersion() {
+        return version;
+    }
+
+    /** Identifies the package regardless of version, ProGet package names are not case sensitive */
+    public String getKey() {
+        return (group + ":" + name).toLowerCase(Locale.ROOT);
+    }
+
+    @Override
+    public String toString() {
+        return group.isEmpty() ? name + ":" + version : group + ":" + name + ":" + version;
+    }
+}
@@ -0,0 +1,220 @@
+package com.inedo.proget.api;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.io.output.TeeOutputStream;
+
+/**
+ * Keeps a copy of the last package built along with an index of its entries, so that a rebuild of a mostly
+ * unchanged file tree can copy the already compressed data for unchanged files rather than compressing them again.
+ *
+ * A file is only reused if its size, modified time and CRC-32 all match those recorded when it was last packaged.
+ *
+ * The index of the new package is written out as each entry is added rather than held in memory.
+ *
+ * Not thread safe other than {@link #lookup(String, File)}, which may be called from multiple compression threads.
+ *
+ * @author Andrew Sumner
+ */
+class PackageEntryCache {
+    private static final int INDEX_VERSION = 2;
+
+    private final File cachedPackage;
+    private final File cachedIndex;
+    private final String policyKey;
+    private final Map<String, CachedEntry> previous = new HashMap<>();
+
+    private FileChannel previousPackage = null;
+    private File newPackage = null;
+    private OutputStream newPackageStream = null;
+    private File newIndex = null;
+    private DataOutputStream newIndexStream = null;
+
+    /**
+     * @param folder Folder to keep the cache in
+     * @param packageName Name of the package being built
+     * @param policyKey Identifies the compression settings, entries compressed with different settings aren't reused
+     */
+    PackageEntryCache(File folder, String packageName, String policyKey) throws IOException {
+        String name = packageName.replace(" ", "");
+
+        this.cachedPackage = new File(folder, name + ".upack");
+        this.cachedIndex = new File(folder, name + ".index");
+        this.policyKey = policyKey;
+
+        if (!folder.exists() && !folder.mkdirs()) {
+            throw new IOException("Unable to create package cache folder " + folder);
+        }
+
+        load();
+    }
+
+    private void load() {
+        if (!cachedPackage.exists() || !cachedIndex.exists()) {
+            return;
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(cachedIndex)))) {
+            if (in.readInt() != INDEX_VERSION || !policyKey.equals(in.readUTF())) {
+                return;
+            }
+
+            while (in.readBoolean()) {
+                CachedEntry entry = CachedEntry.read(in);
+                previous.put(entry.name, entry);
+            }
+
+            if (in.readLong() != cachedPackage.length()) {
+                previous.clear();
+                return;
+            }
+
+            previousPackage = new RandomAccessFile(cachedPackage, "r").getChannel();
+        } catch (IOException e) {
+            // A damaged cache just means everything gets compressed again
+            previous.clear();
+        }
+    }
+
+    /** Number of entries available for reuse */
+    int size() {
+        return previous.size();
+    }
+
+    /**
+     * Returns the previously compressed entry for this file if the file has not changed since it was packaged.
+     *
+     * @return Entry that copies the data from the previous package, or null if the file must be compressed
+     */
+    CompressedEntry lookup(String name, File file) throws IOException {
+        CachedEntry entry = previous.get(name);
+
+        if (entry == null || previousPackage == null || entry.size != file.length() || entry.time != file.lastModified()) {
+            return null;
+        }
+
+        if (CompressedEntry.checksum(file) != entry.crc) {
+            return null;
+        }
+
+        return CompressedEntry.copyOf(name, entry.time, entry.method, entry.crc, entry.size, entry.compressedSize, previousPackage, entry.dataOffset);
+    }
+
+    /**
+     * Wrap the output so that a copy of the new package is kept for the next build.
+     */
+    OutputStream tee(OutputStream out) throws IOException {
+        newPackage = File.createTempFile("proget", ".upack", cachedPackage.getParentFile());
+        newPackageStream = new BufferedOutputStream(new FileOutputStream(newPackage), 64 * 1024);
+
+        // Unique so builds of the same package sharing the cache folder don't write to the same file
+        newIndex = File.createTempFile("proget", ".index", cachedIndex.getParentFile());
+        newIndexStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(newIndex)));
+        newIndexStream.writeInt(INDEX_VERSION);
+        newIndexStream.writeUTF(policyKey);
+
+        return new TeeOutputStream(out, newPackageStream);
+    }
+
+    /** Record where an entry was written in the new package */
+    void written(CompressedEntry entry, long dataOffset) throws IOException {
+        newIndexStream.writeBoolean(true);
+        new CachedEntry(entry.name, entry.time, entry.method, entry.crc, entry.size, entry.compressedSize, dataOffset).write(newIndexStream);
+    }
+
+    /**
+     * Replace the cached package with the one just built.  Must be called after the package has been finished.
+     */
+    void commit() throws IOException {
+        newPackageStream.flush();
+        newIndexStream.writeBoolean(false);
+        newIndexStream.writeLong(newPackage.length());
+
+        close();
+
+        Files.move(newPackage.toPath(), cachedPackage.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        Files.move(newIndex.toPath(), cachedIndex.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /** Release file handles and discard the new package if it was not committed */
+    void close() throws IOException {
+        if (previousPackage != null) {
+            previousPackage.close();
+            previousPackage = null;
+        }
+
+        if (newPackageStream != null) {
+            newPackageStream.close();
+            newPackageStream = null;
+        }
+
+        if (newIndexStream != null) {
+            newIndexStream.close();
+            newIndexStream = null;
+        }
+    }
+
+    void discard() {
+        try {
+            close();
+        } catch (IOException e) {
+            // Ignore, the cache is only an optimisation
+        }
+
+        if (newPackage != null) {
+            newPackage.delete();
+        }
+
+        if (newIndex != null) {
+            newIndex.delete();
+        }
+    }
+
+    private static class CachedEntry {
+        final String name;
+        final long time;
+        final int method;
+        final long crc;
+        final long size;
+        final long compressedSize;
+        final long dataOffset;
+
+        CachedEntry(String name, long time, int method, long crc, long size, long compressedSize, long dataOffset) {
+            this.name = name;
+            this.time = time;
+            this.method = method;
+            this.crc = crc;
+            this.size = size;
+            this.compressedSize = compressedSize;
+            this.dataOffset = dataOffset;
+        }
+
+        static CachedEntry read(DataInputStream in) throws IOException {
+            return new CachedEntry(in.readUTF(), in.readLong(), in.readInt(), in.readLong(), in.readLong(), in.readLong(), in.readLong());
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeUTF(name);
+            out.writeLong(time);
+            out.writeInt(method);
+            out.writeLong(crc);
+            out.writeLong(size);
+            out.writeLong(compressedSize);
+            out.writeLong(dataOffset);
+        }
+    }
+}
@@ -0,0 +1,365 @@
+package com.inedo.proget.api;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Extracts the content of a universal package.
+ *
+ * The folder structure is created up front from the package's central directory, then the files are inflated on a
+ * pool of worker threads, each reading the package through its own {@link ZipFile} so they don't contend for a single
+ * handle.  Largest files are extracted first so that one big file doesn't hold up the end of the extraction.
+ *
+ * Alternatively a package can be extracted as it is read from a stream, eg while it is being downloaded.
+ *
+ * In sync mode files that already hold the content of their entry are left untouched, preserving their timestamps for
+ * incremental builds, and files extracted from the previous package that are not in this one can be deleted.  A
+ * manifest of the extracted files is kept in the folder to support this.
+ *
+ * @author Andrew Sumner
+ */
+public class PackageExtractor {
+    private static final String PACKAGE = "package";
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final int threads;
+    private boolean sync = false;
+    private boolean deleteRemovedFiles = false;
+    private int skippedFiles = 0;
+    private int deletedFiles = 0;
+
+    /**
+     * @param threads Number of threads to extract with, anything less than one will use a thread per available
+     *            processor
+     */
+    public PackageExtractor(int threads) {
+        this.threads = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Leave files that already hold the content of their entry untouched.
+     */
+    public void setSync(boolean sync) {
+        this.sync = sync;
+    }
+
+    /**
+     * When syncing, delete files extracted from the previous package that are not in this one.
+     */
+    public void setDeleteRemovedFiles(boolean deleteRemovedFiles) {
+        this.deleteRemovedFiles = deleteRemovedFiles;
+    }
+
+    /** Number of unchanged files the last extraction did not need to write */
+    public int getSkippedFiles() {
+        return skippedFiles;
+    }
+
+    /** Number of files the last extraction deleted as they are no longer in the package */
+    public int getDeletedFiles() {
+        return deletedFiles;
+    }
+
+    /**
+     * Extract the package into the folder it is in, the package/ folder prefix is removed from the entry names.
+     */
+    public void extract(File pkg) throws IOException {
+        extract(pkg, pkg.getParentFile());
+    }
+
+    /**
+     * Extract the package into a folder, the package/ folder prefix is removed from the entry names.
+     */
+    public void extract(File pkg, File extractTo) throws IOException {
+        SyncManifest manifest = startSync(extractTo);
+        Set<File> linked = getLinkedFiles(manifest, extractTo);
+        Map<File, ZipEntry> files = new LinkedHashMap<>();
+        Set<File> folders = new TreeSet<>();
+        Set<String> names = new HashSet<>();
+        boolean duplicates = false;
+
+        try (ZipFile archive = new ZipFile(pkg)) {
+            Enumeration<? extends ZipEntry> e = archive.entries();
+
+            while (e.hasMoreElements()) {
+                ZipEntry entry = e.nextElement();
+                String entryName = toExtractedName(entry);
+
+                if (entryName == null) {
+                    continue;
+                }
+
+                duplicates |= !names.add(entry.getName());
+
+                File file = toFile(extractTo, entryName);
+
+                if (entry.isDirectory()) {
+                    folders.add(file);
+                } else {
+                    // If the same file appears twice the last one written wins
+                    files.remove(file);
+                    files.put(file, entry);
+                    folders.add(file.getParentFile());
+                }
+            }
+
+            if (manifest != null) {
+                skipUnchanged(files, manifest);
+            }
+
+            createFolders(folders);
+
+            if (threads == 1 || duplicates || files.size() < 2) {
+                // A ZipFile can only look up the first of several entries with the same name
+                for (Map.Entry<File, ZipEntry> file : files.entrySet()) {
+                    extract(archive, file.getValue(), file.getKey(), linked.contains(file.getKey()), new byte[BUFFER_SIZE]);
+                }
+            } else {
+                extractInParallel(pkg, files, linked);
+            }
+        }
+
+        if (manifest != null) {
+            for (Map.Entry<File, ZipEntry> file : files.entrySet()) {
+                manifest.record(toExtractedName(file.getValue()), file.getKey(), file.getValue().getCrc());
+            }
+
+            finishSync(manifest);
+        }
+    }
+
+    private SyncManifest startSync(File extractTo) {
+        skippedFiles = 0;
+        deletedFiles = 0;
+
+        return sync ? new SyncManifest(extractTo) : null;
+    }
+
+    /** Files linked into the folder from the package cache, read from the manifest even when not syncing */
+    private static Set<File> getLinkedFiles(SyncManifest manifest, File extractTo) {
+        if (manifest != null) {
+            return manifest.getLinkedFiles();
+        }
+
+        if (new File(extractTo, SyncManifest.FILE_NAME).isFile()) {
+            return new SyncManifest(extractTo).getLinkedFiles();
+        }
+
+        return Collections.emptySet();
+    }
+
+    private void skipUnchanged(Map<File, ZipEntry> files, SyncManifest manifest) throws IOException {
+        Iterator<Map.Entry<File, ZipEntry>> iterator = files.entrySet().iterator();
+
+        while (iterator.hasNext()) {
+            Map.Entry<File, ZipEntry> file = iterator.next();
+
+            if (manifest.isUnchanged(toExtractedName(file.getValue()), file.getKey(), file.getValue())) {
+                iterator.remove();
+                skippedFiles++;
+            }
+        }
+    }
+
+    private void finishSync(SyncManifest manifest) throws IOException {
+        if (deleteRemovedFiles) {
+            deletedFiles = manifest.deleteRemoved();
+        }
+
+        manifest.save();
+    }
+
+    /**
+     * Extract a package as it is read, the package/ folder prefix is removed from the entry names.
+     *
+     * @param in Package content, is not closed
+     * @param extractTo Folder to extract to
+     */
+    public void extract(InputStream in, File extractTo) throws IOException {
+        SyncManifest manifest = startSync(extractTo);
+        Set<File> linked = getLinkedFiles(manifest, extractTo);
+        ZipInputStream zip = new ZipInputStream(new BufferedInputStream(in, BUFFER_SIZE));
+        Set<File> folders = new HashSet<>();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        ZipEntry entry;
+
+        while ((entry = zip.getNextEntry()) != null) {
+            String entryName = toExtractedName(entry);
+
+            if (entryName == null) {
+                continue;
+            }
+
+            File file = toFile(extractTo, entryName);
+
+            if (entry.isDirectory()) {
+                createFolder(file, folders);
+                continue;
+            }
+
+            // Entries whose size and crc follow their data can't be checked, so are always written
+            if (manifest != null && manifest.isUnchanged(entryName, file, entry)) {
+                skippedFiles++;
+                continue;
+            }
+
+            createFolder(file.getParentFile(), folders);
+
+            try (OutputStream out = create(file, linked.contains(file))) {
+                int read;
+
+                while (-1 != (read = zip.read(buffer))) {
+                    out.write(buffer, 0, read);
+                }
+            }
+
+            if (manifest != null) {
+                manifest.record(entryName, file, entry.getCrc());
+            }
+        }
+
+        if (manifest != null) {
+            finishSync(manifest);
+        }
+    }
+
+    private static void createFolder(File folder, Set<File> created) throws IOException {
+        if (created.add(folder) && !folder.isDirectory() && !folder.mkdirs()) {
+            throw new IOException("Unable to create folder " + folder);
+        }
+    }
+
+    /**
+     * @return The name of the file relative to the extraction folder, or null if the entry is the package folder itself
+     */
+    static String toExtractedName(ZipEntry entry) {
+        String entryName = new File(entry.getName()).getPath();
+
+        if (entryName.equals(PACKAGE + ProGetPackager.WINDOWS_SEPARATOR) || entryName.equals(PACKAGE + ProGetPackager.UNIX_SEPARATOR)) {
+            return null;
+        }
+
+        if (entryName.startsWith(PACKAGE + ProGetPackager.WINDOWS_SEPARATOR) || entryName.startsWith(PACKAGE + ProGetPackager.UNIX_SEPARATOR)) {
+            entryName = entryName.substring(PACKAGE.length() + 1);
+        }
+
+        return entryName;
+    }
+
+    /** Entries that would be written outside the folder, eg ../x or an absolute path, fail the extraction */
+    private static File toFile(File extractTo, String entryName) throws IOException {
+        File file = SyncManifest.resolve(extractTo, entryName);
+
+        if (file == null) {
+            throw new IOException("Package entry " + entryName + " is outside the folder " + extractTo);
+        }
+
+        return file;
+    }
+
+    /** Folders are sorted so a parent is always created before its children */
+    private static void createFolders(Set<File> folders) throws IOException {
+        for (File folder : folders) {
+            if (!folder.isDirectory() && !folder.mkdirs()) {
+                throw new IOException("Unable to create folder " + folder);
+            }
+        }
+    }
+
+    private void extractInParallel(File pkg, Map<File, ZipEntry> files, Set<File> linked) throws IOException {
+        List<Map.Entry<File, ZipEntry>> queue = new ArrayList<>(files.entrySet());
+        Collections.sort(queue, Comparator.comparingLong((Map.Entry<File, ZipEntry> file) -> file.getValue().getSize()).reversed());
+
+        int workers = Math.min(threads, queue.size());
+        AtomicInteger next = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(workers, new DaemonThreadFactory("ProGet extractor"));
+        List<Future<Void>> results = new ArrayList<>();
+
+        try {
+            for (int i = 0; i < workers; i++) {
+                results.add(pool.submit(() -> {
+                    byte[] buffer = new byte[BUFFER_SIZE];
+
+                    try (ZipFile archive = new ZipFile(pkg)) {
+                        int index;
+
+                        while ((index = next.getAndIncrement()) < queue.size()) {
+                            Map.Entry<File, ZipEntry> file = queue.get(index);
+
+                            extract(archive, archive.getEntry(file.getValue().getName()), file.getKey(), linked.contains(file.getKey()), buffer);
+                        }
+                    } catch (IOException | RuntimeException e) {
+                        // Stop the other workers picking up more files
+                        next.set(queue.size());
+                        throw e;
+                    }
+
+                    return null;
+                }));
+            }
+
+            for (Future<Void> result : results) {
+                result.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Extraction interrupted");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+
+            throw new IOException(e.getCause());
+        } finally {
+            next.set(queue.size());
+            pool.shutdown();
+        }
+    }
+
+    private static void extract(ZipFile archive, ZipEntry entry, File file, boolean replace, byte[] buffer) throws IOException {
+        try (InputStream in = archive.getInputStream(entry); OutputStream out = create(file, replace)) {
+            int read;
+
+            while (-1 != (read = in.read(buffer))) {
+                out.write(buffer, 0, read);
+            }
+        }
+    }
+
+    /**
+     * @param replace Delete the existing file first rather than overwriting it, for a file hard linked from the package
+     *            cache writing through the link would change the cached copy too
+     */
+    private static OutputStream create(File file, boolean replace) throws IOException {
+        if (replace) {
+            Files.deleteIfExists(file.toPath());
+        }
+
+        return new FileOutputStream(file);
+    }
+}
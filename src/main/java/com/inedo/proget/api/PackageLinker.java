@@ -0,0 +1,125 @@
+package com.inedo.proget.api;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystemException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * Reproduces an already extracted package tree in another folder by creating hard links to its files, so no content
+ * is inflated or copied.  Where hard links are not supported, eg the folders are on different volumes, the files are
+ * copied instead.
+ *
+ * Linked files share their content with the tree they were linked from, which is why the package cache makes its
+ * extracted files read only.  A linked file must never be modified in place, opening it for writing changes the cached
+ * copy too, it has to be deleted and written again as a new file.
+ *
+ * @author Andrew Sumner
+ */
+public class PackageLinker {
+    private boolean deleteRemovedFiles = false;
+    private int linkedFiles = 0;
+    private int copiedFiles = 0;
+    private int skippedFiles = 0;
+    private int deletedFiles = 0;
+
+    /**
+     * Delete files linked from the previous package that are not in this one.
+     */
+    public void setDeleteRemovedFiles(boolean deleteRemovedFiles) {
+        this.deleteRemovedFiles = deleteRemovedFiles;
+    }
+
+    /** Number of files the last call linked */
+    public int getLinkedFiles() {
+        return linkedFiles;
+    }
+
+    /** Number of files the last call had to copy as they could not be linked */
+    public int getCopiedFiles() {
+        return copiedFiles;
+    }
+
+    /** Number of files the last call found were already linked */
+    public int getSkippedFiles() {
+        return skippedFiles;
+    }
+
+    /** Number of files the last call deleted as they are no longer in the package */
+    public int getDeletedFiles() {
+        return deletedFiles;
+    }
+
+    /**
+     * Link every file in a tree into a folder, replacing any existing files.
+     */
+    public void link(File tree, File linkTo) throws IOException {
+        Path source = tree.toPath();
+        Path target = linkTo.toPath();
+        SyncManifest manifest = new SyncManifest(linkTo);
+
+        linkedFiles = 0;
+        copiedFiles = 0;
+        skippedFiles = 0;
+        deletedFiles = 0;
+
+        Files.walkFileTree(source, new SimpleFileVisitor<Path>() {
+            private boolean canLink = true;
+
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                Files.createDirectories(target.resolve(source.relativize(dir).toString()));
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                String name = source.relativize(file).toString().replace(File.separatorChar, '/');
+                Path link = target.resolve(name);
+
+                if (Files.exists(link) && (Files.isSameFile(file, link) || isSameCopy(file, link))) {
+                    skippedFiles++;
+                } else {
+                    Files.deleteIfExists(link);
+
+                    if (canLink) {
+                        try {
+                            Files.createLink(link, file);
+                            linkedFiles++;
+                        } catch (UnsupportedOperationException | FileSystemException e) {
+                            // Not worth trying again for every file
+                            canLink = false;
+                        }
+                    }
+
+                    if (!canLink) {
+                        Files.copy(file, link, StandardCopyOption.COPY_ATTRIBUTES);
+                        link.toFile().setWritable(true);
+                        copiedFiles++;
+                    }
+                }
+
+                // The content is known to match the package so the checksum is not needed
+                manifest.record(name, link.toFile(), SyncManifest.LINKED);
+
+                return FileVisitResult.CONTINUE;
+            }
+        });
+
+        if (deleteRemovedFiles) {
+            deletedFiles = manifest.deleteRemoved();
+        }
+
+        manifest.save();
+    }
+
+    /** Copies keep the timestamp of the file they were copied from */
+    private static boolean isSameCopy(Path file, Path copy) throws IOException {
+        return Files.size(file) == Files.size(copy) && Files.getLastModifiedTime(file).toMillis() == Files.getLastModifiedTime(copy).toMillis();
+    }
+}
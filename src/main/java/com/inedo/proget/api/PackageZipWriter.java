@@ -0,0 +1,240 @@
+package com.inedo.proget.api;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+
+import org.apache.commons.io.output.CountingOutputStream;
+
+/**
+ * Writes a zip file from entries that have already been compressed.
+ *
+ * As the size and crc of every entry is known before it is written no data descriptors are required, so the output
+ * can be sent to a non seekable stream such as an upload request.  Zip64 records are added when sizes, offsets or
+ * the number of entries exceed what the standard zip format can hold.
+ *
+ * The central directory is built up in memory until it reaches {@link #CENTRAL_DIRECTORY_MEMORY_LIMIT}, after which
+ * it is moved to a temporary file so packages with a very large number of files don't exhaust the heap.
+ *
+ * @author Andrew Sumner
+ */
+class PackageZipWriter {
+    private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+    private static final int ZIP64_MAGIC_COUNT = 0xFFFF;
+    private static final int VERSION_DEFAULT = 20;
+    private static final int VERSION_ZIP64 = 45;
+    private static final int FLAG_UTF8 = 0x800;
+    private static final int CENTRAL_DIRECTORY_MEMORY_LIMIT = 4 * 1024 * 1024;
+
+    private final CountingOutputStream out;
+    private ByteArrayOutputStream centralDirectory = new ByteArrayOutputStream();
+    private File centralDirectoryFile = null;
+    private OutputStream centralDirectoryStream = null;
+    private long centralDirectorySize = 0;
+    private long entryCount = 0;
+
+    /**
+     * @param out Stream to write to, is not closed by {@link #finish()}
+     */
+    PackageZipWriter(OutputStream out) {
+        this.out = new CountingOutputStream(new BufferedOutputStream(out, 64 * 1024));
+    }
+
+    /**
+     * Write the local header and compressed data for an entry.
+     *
+     * @return Offset of the entry's compressed data within the zip file
+     */
+    long write(CompressedEntry entry) throws IOException {
+        byte[] name = entry.name.getBytes(StandardCharsets.UTF_8);
+        long offset = out.getByteCount();
+        long dosTime = toDosTime(entry.time);
+        boolean zip64 = entry.size >= ZIP64_MAGIC || entry.compressedSize >= ZIP64_MAGIC;
+
+        writeInt(out, 0x04034b50L);
+        writeShort(out, zip64 ? VERSION_ZIP64 : VERSION_DEFAULT);
+        writeShort(out, FLAG_UTF8);
+        writeShort(out, entry.method);
+        writeInt(out, dosTime);
+        writeInt(out, entry.crc);
+
+        if (zip64) {
+            writeInt(out, ZIP64_MAGIC);
+            writeInt(out, ZIP64_MAGIC);
+            writeShort(out, name.length);
+            writeShort(out, 20);
+            out.write(name);
+            writeShort(out, 0x0001);
+            writeShort(out, 16);
+            writeLong(out, entry.size);
+            writeLong(out, entry.compressedSize);
+        } else {
+            writeInt(out, entry.compressedSize);
+            writeInt(out, entry.size);
+            writeShort(out, name.length);
+            writeShort(out, 0);
+            out.write(name);
+        }
+
+        long dataOffset = out.getByteCount();
+        entry.writeDataTo(out);
+
+        addCentralDirectoryRecord(entry, name, dosTime, offset);
+        entryCount++;
+
+        return dataOffset;
+    }
+
+    private void addCentralDirectoryRecord(CompressedEntry entry, byte[] name, long dosTime, long offset) throws IOException {
+        ByteArrayOutputStream extra = new ByteArrayOutputStream();
+
+        if (entry.size >= ZIP64_MAGIC) {
+            writeLong(extra, entry.size);
+        }
+        if (entry.compressedSize >= ZIP64_MAGIC) {
+            writeLong(extra, entry.compressedSize);
+        }
+        if (offset >= ZIP64_MAGIC) {
+            writeLong(extra, offset);
+        }
+
+        boolean zip64 = extra.size() > 0;
+        ByteArrayOutputStream cd = new ByteArrayOutputStream(46 + name.length + 28);
+
+        writeInt(cd, 0x02014b50L);
+        writeShort(cd, zip64 ? VERSION_ZIP64 : VERSION_DEFAULT);
+        writeShort(cd, zip64 ? VERSION_ZIP64 : VERSION_DEFAULT);
+        writeShort(cd, FLAG_UTF8);
+        writeShort(cd, entry.method);
+        writeInt(cd, dosTime);
+        writeInt(cd, entry.crc);
+        writeInt(cd, Math.min(entry.compressedSize, ZIP64_MAGIC));
+        writeInt(cd, Math.min(entry.size, ZIP64_MAGIC));
+        writeShort(cd, name.length);
+        writeShort(cd, zip64 ? extra.size() + 4 : 0);
+        writeShort(cd, 0); // comment
+        writeShort(cd, 0); // disk number
+        writeShort(cd, 0); // internal attributes
+        writeInt(cd, 0); // external attributes
+        writeInt(cd, Math.min(offset, ZIP64_MAGIC));
+        cd.write(name);
+
+        if (zip64) {
+            writeShort(cd, 0x0001);
+            writeShort(cd, extra.size());
+            extra.writeTo(cd);
+        }
+
+        if (centralDirectoryStream != null) {
+            cd.writeTo(centralDirectoryStream);
+        } else {
+            cd.writeTo(centralDirectory);
+
+            if (centralDirectory.size() > CENTRAL_DIRECTORY_MEMORY_LIMIT) {
+                centralDirectoryFile = File.createTempFile("proget", ".directory");
+                centralDirectoryStream = new BufferedOutputStream(new FileOutputStream(centralDirectoryFile), 64 * 1024);
+                centralDirectory.writeTo(centralDirectoryStream);
+                centralDirectory = null;
+            }
+        }
+
+        centralDirectorySize += cd.size();
+    }
+
+    /** Write the central directory and flush the stream */
+    void finish() throws IOException {
+        long cdOffset = out.getByteCount();
+        long cdSize = centralDirectorySize;
+
+        if (centralDirectoryStream != null) {
+            centralDirectoryStream.close();
+            centralDirectoryStream = null;
+            Files.copy(centralDirectoryFile.toPath(), out);
+        } else {
+            centralDirectory.writeTo(out);
+        }
+
+        if (entryCount >= ZIP64_MAGIC_COUNT || cdOffset >= ZIP64_MAGIC || cdSize >= ZIP64_MAGIC) {
+            long zip64EndOffset = out.getByteCount();
+
+            writeInt(out, 0x06064b50L);
+            writeLong(out, 44);
+            writeShort(out, VERSION_ZIP64);
+            writeShort(out, VERSION_ZIP64);
+            writeInt(out, 0);
+            writeInt(out, 0);
+            writeLong(out, entryCount);
+            writeLong(out, entryCount);
+            writeLong(out, cdSize);
+            writeLong(out, cdOffset);
+
+            writeInt(out, 0x07064b50L);
+            writeInt(out, 0);
+            writeLong(out, zip64EndOffset);
+            writeInt(out, 1);
+        }
+
+        writeInt(out, 0x06054b50L);
+        writeShort(out, 0);
+        writeShort(out, 0);
+        writeShort(out, (int) Math.min(entryCount, ZIP64_MAGIC_COUNT));
+        writeShort(out, (int) Math.min(entryCount, ZIP64_MAGIC_COUNT));
+        writeInt(out, Math.min(cdSize, ZIP64_MAGIC));
+        writeInt(out, Math.min(cdOffset, ZIP64_MAGIC));
+        writeShort(out, 0);
+
+        out.flush();
+    }
+
+    /** Remove the temporary central directory file, if one was needed */
+    void close() {
+        if (centralDirectoryStream != null) {
+            try {
+                centralDirectoryStream.close();
+            } catch (IOException e) {
+                // Ignore, the file is about to be deleted
+            }
+
+            centralDirectoryStream = null;
+        }
+
+        if (centralDirectoryFile != null) {
+            centralDirectoryFile.delete();
+            centralDirectoryFile = null;
+        }
+    }
+
+    private static long toDosTime(long time) {
+        LocalDateTime d = LocalDateTime.ofInstant(Instant.ofEpochMilli(time), ZoneId.systemDefault());
+
+        if (d.getYear() < 1980) {
+            return (1 << 21) | (1 << 16);
+        }
+
+        return (long) (d.getYear() - 1980) << 25 | d.getMonthValue() << 21 | d.getDayOfMonth() << 16
+                | d.getHour() << 11 | d.getMinute() << 5 | d.getSecond() >> 1;
+    }
+
+    private static void writeShort(OutputStream out, int value) throws IOException {
+        out.write(value & 0xFF);
+        out.write((value >>> 8) & 0xFF);
+    }
+
+    private static void writeInt(OutputStream out, long value) throws IOException {
+        writeShort(out, (int) (value & 0xFFFF));
+        writeShort(out, (int) ((value >>> 16) & 0xFFFF));
+    }
+
+    private static void writeLong(OutputStream out, long value) throws IOException {
+        writeInt(out, value & 0xFFFFFFFFL);
+        writeInt(out, value >>> 32);
+    }
+}
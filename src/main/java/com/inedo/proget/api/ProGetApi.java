@@ -2,15 +2,40 @@ package com.inedo.proget.api;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.Serializable;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
 import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.net.URL;
-
-import org.concordion.cubano.driver.http.HttpEasy;
-import org.concordion.cubano.driver.http.JsonReader;
+import java.net.URLEncoder;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Consumer;
+
+import org.apache.commons.io.IOUtils;
 
 import com.google.common.net.MediaType;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 import com.inedo.proget.domain.Feed;
 import com.inedo.proget.domain.PackageVersion;
 import com.inedo.proget.domain.ProGetPackage;
@@ -29,11 +54,18 @@ import com.inedo.proget.jenkins.utils.JenkinsLogWriter;
  */
 public class ProGetApi implements Serializable {
     private static final long serialVersionUID = 1L;
+    private static final Gson GSON = new Gson();
+    private static final Gson PRETTY_GSON = new GsonBuilder().setPrettyPrinting().create();
+
+    // Identical requests made at the same time, say by a burst of builds, share one call to ProGet
+    private static final SingleFlight<String> REQUESTS = new SingleFlight<>();
+    private static final SingleFlight<String[]> NAME_LISTS = new SingleFlight<>();
     
     private ProGetConfig config;
+    private transient JenkinsLogWriter logWriter;
 
     private boolean recordResult = false;
-    private String jsonString;
+    private volatile String jsonString;
 
     public ProGetApi(JenkinsLogWriter listener) {
         this(GlobalConfig.getProGetConfig(), listener);
@@ -41,13 +73,7 @@ public class ProGetApi implements Serializable {
 
     public ProGetApi(ProGetConfig config, JenkinsLogWriter logWriter) {
         this.config = config;
-
-        HttpEasy.withDefaults()
-                .baseUrl(config.url)
-                .withLogWriter(logWriter)
-                .logRequest(config.logApiRequests)
-                .trustAllCertificates(config.trustAllCertificates)
-                .sensitiveParameters("API_Key");
+        this.logWriter = logWriter;
     }
 
     public void setRecordJson(boolean record) {
@@ -88,40 +114,17 @@ public class ProGetApi implements Serializable {
     }
 
     public String getVersion() throws IOException {
-        return HttpEasy.request()
-                .path("api/version")
-                .get()
-                .asString();
+        return getString("api/version");
     }
 
     /** Get all active feeds */
     public Feed[] getFeeds() throws IOException {
-        JsonReader reader = HttpEasy.request()
-                .path("api/json/Feeds_GetFeeds?API_Key={}&IncludeInactive_Indicator={}")
-                .urlParameters(config.apiKey, "N")
-                .get()
-                .getJsonReader();
-
-        if (recordResult) {
-            jsonString = reader.asPrettyString();
-        }
-
-        return reader.fromJson(Feed[].class);
+        return getJson(Feed[].class, "api/json/Feeds_GetFeeds?API_Key={}&IncludeInactive_Indicator={}", config.apiKey, "N");
     }
 
     /** Gets the details of a feed by its name */
     public Feed getFeed(String feedName) throws IOException {
-        JsonReader reader = HttpEasy.request()
-                .path("api/json/Feeds_GetFeed?API_Key={}&Feed_Name={}")
-                .urlParameters(config.apiKey, feedName)
-                .get()
-                .getJsonReader();
-
-        if (recordResult) {
-            jsonString = reader.asPrettyString();
-        }
-
-        Feed feed = reader.fromJson(Feed.class);
+        Feed feed = getJson(Feed.class, "api/json/Feeds_GetFeed?API_Key={}&Feed_Name={}", config.apiKey, feedName);
 
         if (feed == null) {
             throw new IOException("Feed " + feedName + " was not found");
@@ -130,49 +133,363 @@ public class ProGetApi implements Serializable {
         return feed;
     }
 
-    /** Gets the packages in a ProGet feed */
+    /**
+     * Gets the packages in a ProGet feed.  The response is parsed as it is read but every package is held in the
+     * returned array, use {@link #forEachPackage(String, String, Consumer)} to process a large feed without that.
+     */
     public ProGetPackage[] getPackages(String feedId) throws IOException {
-        JsonReader reader = HttpEasy.request()
-                .path("api/json/ProGetPackages_GetPackages?API_Key={}&Feed_Id={}&IncludeVersions_Indicator=Y")
-                .urlParameters(config.apiKey, feedId, "Y")
-                .get()
-                .getJsonReader();
-
         if (recordResult) {
-            jsonString = reader.asPrettyString();
+            return getJson(ProGetPackage[].class, "api/json/ProGetPackages_GetPackages?API_Key={}&Feed_Id={}&IncludeVersions_Indicator={}", config.apiKey, feedId, "Y");
         }
 
-        return reader.fromJson(ProGetPackage[].class);
+        List<ProGetPackage> packages = new ArrayList<>();
+        forEachPackage(feedId, null, packages::add);
+
+        return packages.toArray(new ProGetPackage[0]);
     }
 
-    /** Gets the packages in a ProGet feed */
+    /**
+     * Gets the packages in a group of a ProGet feed, held in memory as {@link #getPackages(String)} does.
+     */
     public ProGetPackage[] getPackages(String feedId, String groupName) throws IOException {
-        JsonReader reader = HttpEasy.request()
-                .path("api/json/ProGetPackages_GetPackages?API_Key={}&Feed_Id={}&Group_Name={}&IncludeVersions_Indicator=Y")
-                .urlParameters(config.apiKey, feedId, groupName, "Y")
-                .get()
-                .getJsonReader();
-
         if (recordResult) {
-            jsonString = reader.asPrettyString();
+            return getJson(ProGetPackage[].class, "api/json/ProGetPackages_GetPackages?API_Key={}&Feed_Id={}&Group_Name={}&IncludeVersions_Indicator={}",
+                    config.apiKey, feedId, groupName, "Y");
+        }
+
+        List<ProGetPackage> packages = new ArrayList<>();
+        forEachPackage(feedId, groupName == null ? "" : groupName, packages::add);
+
+        return packages.toArray(new ProGetPackage[0]);
+    }
+
+    /**
+     * Pass each package in a ProGet feed to the consumer as it is read from the response, rather than reading the whole
+     * response first, so the memory used doesn't grow with the size of the feed.  Within a call the feed id and group
+     * name are shared between packages rather than each package holding its own copy.
+     * 
+     * @param feedId Required
+     * @param groupName Optional - null for the packages in all groups
+     * @param consumer Receives each package
+     */
+    public void forEachPackage(String feedId, String groupName, Consumer<ProGetPackage> consumer) throws IOException {
+        String path = groupName == null
+                ? withParameters("api/json/ProGetPackages_GetPackages?API_Key={}&Feed_Id={}&IncludeVersions_Indicator={}", config.apiKey, feedId, "Y")
+                : withParameters("api/json/ProGetPackages_GetPackages?API_Key={}&Feed_Id={}&Group_Name={}&IncludeVersions_Indicator={}", config.apiKey, feedId, groupName, "Y");
+        Map<String, String> shared = new HashMap<>();
+
+        forEachJson(ProGetPackage.class, path, pkg -> {
+            pkg.Feed_Id = share(shared, pkg.Feed_Id);
+            pkg.Group_Name = share(shared, pkg.Group_Name);
+            consumer.accept(pkg);
+        });
+    }
+
+    /**
+     * Gets the names of the groups in a ProGet feed, without fetching the versions of each package.
+     * 
+     * @param feedId Required
+     * @return Sorted group names, packages without a group are not included
+     */
+    public String[] getGroupNames(String feedId) throws IOException {
+        String path = withParameters("api/json/ProGetPackages_GetPackages?API_Key={}&Feed_Id={}&IncludeVersions_Indicator={}", config.apiKey, feedId, "N");
+
+        return NAME_LISTS.call(requestKey("groups", path), () -> {
+            SortedSet<String> groups = new TreeSet<>();
+
+            forEachJson(ProGetPackage.class, path, pkg -> {
+                if (pkg.Group_Name != null && !pkg.Group_Name.isEmpty()) {
+                    groups.add(pkg.Group_Name);
+                }
+            });
+
+            return groups.toArray(new String[0]);
+        }).clone();
+    }
+
+    /**
+     * Gets the names of the packages in a ProGet feed, without fetching the versions of each package.
+     * 
+     * @param feedId Required
+     * @param groupName Optional - null or empty for the packages in all groups
+     * @return Sorted package names
+     */
+    public String[] getPackageNames(String feedId, String groupName) throws IOException {
+        String path = groupName == null || groupName.isEmpty()
+                ? withParameters("api/json/ProGetPackages_GetPackages?API_Key={}&Feed_Id={}&IncludeVersions_Indicator={}", config.apiKey, feedId, "N")
+                : withParameters("api/json/ProGetPackages_GetPackages?API_Key={}&Feed_Id={}&Group_Name={}&IncludeVersions_Indicator={}", config.apiKey, feedId, groupName, "N");
+
+        return NAME_LISTS.call(requestKey("packages", path), () -> {
+            SortedSet<String> names = new TreeSet<>();
+
+            forEachJson(ProGetPackage.class, path, pkg -> names.add(pkg.Package_Name));
+
+            return names.toArray(new String[0]);
+        }).clone();
+    }
+
+    /**
+     * Gets the version numbers of a package, in the order the server returns them (newest first).  Uses the universal
+     * feed API, which can limit the number of versions returned, falling back to the native API for versions of ProGet
+     * without it.
+     * 
+     * @param feed Required
+     * @param groupName Optional
+     * @param packageName Required
+     * @param count Maximum number of versions to return, 0 for all
+     * @return Version numbers
+     */
+    public String[] getVersionNames(Feed feed, String groupName, String packageName, int count) throws IOException {
+        StringBuilder path = new StringBuilder("upack/").append(encodePathSegment(feed.Feed_Name)).append("/versions?");
+
+        if (groupName != null && !groupName.isEmpty()) {
+            path.append("group=").append(encodePathSegment(groupName)).append("&");
         }
 
-        return reader.fromJson(ProGetPackage[].class);
+        path.append("name=").append(encodePathSegment(packageName));
+
+        if (count > 0) {
+            path.append("&count=").append(count);
+        }
+
+        return NAME_LISTS.call(requestKey("versions", path.toString()), () -> {
+            List<String> versions = new ArrayList<>();
+
+            if (!forEachJson(UniversalVersion.class, path.toString(), true, version -> versions.add(version.version))) {
+                for (PackageVersion version : getPackageVersions(feed.Feed_Id, groupName, packageName)) {
+                    if (count > 0 && versions.size() == count) {
+                        break;
+                    }
+
+                    versions.add(version.Version_Text);
+                }
+            }
+
+            return versions.toArray(new String[0]);
+        }).clone();
+    }
+
+    /** A version returned by the universal feed API, only the fields used are declared */
+    private static class UniversalVersion {
+        String version;
+    }
+
+    private static String share(Map<String, String> shared, String value) {
+        if (value == null) {
+            return null;
+        }
+
+        String existing = shared.putIfAbsent(value, value);
+
+        return existing == null ? value : existing;
     }
 
     /** Gets the package versions in a ProGet feed */
     public PackageVersion[] getPackageVersions(String feedId, String groupName, String packageName) throws IOException {
-        JsonReader reader = HttpEasy.request()
-                .path("api/json/ProGetPackages_GetPackageVersions?API_Key={}&Feed_Id={}&Group_Name={}&Package_Name={}")
-                .urlParameters(config.apiKey, feedId, groupName, packageName)
-                .get()
-                .getJsonReader();
+        return getJson(PackageVersion[].class, "api/json/ProGetPackages_GetPackageVersions?API_Key={}&Feed_Id={}&Group_Name={}&Package_Name={}",
+                config.apiKey, feedId, groupName, packageName);
+    }
+
+    private <T> T getJson(Class<T> type, String path, String... parameters) throws IOException {
+        String json = getString(withParameters(path, parameters));
 
         if (recordResult) {
-            jsonString = reader.asPrettyString();
+            jsonString = PRETTY_GSON.toJson(new JsonParser().parse(json));
+        }
+
+        return GSON.fromJson(json, type);
+    }
+
+    /** Read a JSON array one element at a time, passing each element to the consumer as it is read */
+    private <T> void forEachJson(Class<T> type, String path, Consumer<T> consumer) throws IOException {
+        forEachJson(type, path, false, consumer);
+    }
+
+    /**
+     * As {@link #forEachJson(Class, String, Consumer)}, optionally returning false rather than failing if the server
+     * doesn't know the path.
+     */
+    private <T> boolean forEachJson(Class<T> type, String path, boolean allowNotFound, Consumer<T> consumer) throws IOException {
+        ProGetConnection proget = new ProGetConnection(config, logWriter);
+        HttpURLConnection connection = proget.open("GET", path);
+
+        try {
+            if (allowNotFound && connection.getResponseCode() == HttpURLConnection.HTTP_NOT_FOUND) {
+                return false;
+            }
+
+            ProGetConnection.checkResponse(connection);
+
+            try (JsonReader reader = new JsonReader(new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8))) {
+                if (reader.peek() == JsonToken.NULL) {
+                    reader.nextNull();
+                } else {
+                    reader.beginArray();
+
+                    while (reader.hasNext()) {
+                        T element = GSON.fromJson(reader, type);
+                        consumer.accept(element);
+                    }
+
+                    reader.endArray();
+                }
+            } catch (JsonParseException | IllegalStateException e) {
+                throw new IOException("Unable to read response from " + path.replaceAll("API_Key=[^&]*", "API_Key=*****"), e);
+            }
+
+            proget.finish(connection);
+
+            return true;
+        } finally {
+            proget.release(connection);
+        }
+    }
+
+    private String getString(String path) throws IOException {
+        return REQUESTS.call(requestKey("GET", path), () -> fetchString(path));
+    }
+
+    private String fetchString(String path) throws IOException {
+        ProGetConnection proget = new ProGetConnection(config, logWriter);
+        HttpURLConnection connection = proget.open("GET", path);
+
+        try {
+            ProGetConnection.checkResponse(connection);
+
+            String body;
+
+            try (InputStream in = connection.getInputStream()) {
+                body = IOUtils.toString(in, StandardCharsets.UTF_8);
+            }
+
+            proget.finish(connection);
+
+            return body;
+        } finally {
+            proget.release(connection);
+        }
+    }
+
+    /**
+     * Identifies a request, including the credentials it is sent with as they affect what ProGet returns.  The key is
+     * hashed so neither the credentials nor the API key in the path are held in it.
+     */
+    private String requestKey(String type, String path) {
+        return ProGetClient.hash(String.join("\n", type, config.url, String.valueOf(config.user), String.valueOf(config.password), String.valueOf(config.apiKey), path));
+    }
+
+    /** Replace each {} in the path with the next parameter, encoded for use in a query string */
+    private static String withParameters(String path, String... parameters) throws UnsupportedEncodingException {
+        StringBuilder result = new StringBuilder();
+        int start = 0;
+
+        for (String parameter : parameters) {
+            int index = path.indexOf("{}", start);
+
+            if (index < 0) {
+                break;
+            }
+
+            result.append(path, start, index).append(parameter == null ? "" : URLEncoder.encode(parameter, "UTF-8"));
+            start = index + 2;
+        }
+
+        return result.append(path.substring(start)).toString();
+    }
+
+    /**
+     * @return True if the version is empty or "latest"
+     */
+    public static boolean isLatest(String version) {
+        return version == null || version.trim().isEmpty() || version.equalsIgnoreCase("latest");
+    }
+
+    /**
+     * Find the latest version of a package.  Versions are cached for the configured time, after which they are
+     * revalidated with a conditional request.
+     * 
+     * @param feedName Required
+     * @param groupName Optional
+     * @param packageName Required
+     * @return The version, or null if the package was not found
+     * @throws IOException
+     */
+    public String resolveLatestVersion(String feedName, String groupName, String packageName) throws IOException {
+        String key = LatestVersionCache.key(config, feedName, groupName, packageName);
+        LatestVersionCache.Entry cached = LatestVersionCache.get(key);
+        long ttl = config.latestVersionCacheSeconds * 1000L;
+
+        if (cached != null && !cached.isExpired()) {
+            return cached.version;
+        }
+
+        StringBuilder path = new StringBuilder("upack/").append(encodePathSegment(feedName)).append("/packages?");
+
+        if (groupName != null && !groupName.isEmpty()) {
+            path.append("group=").append(encodePathSegment(groupName)).append("&");
+        }
+
+        path.append("name=").append(encodePathSegment(packageName));
+
+        return REQUESTS.call(requestKey("latest", path.toString()), () -> fetchLatestVersion(path.toString(), key, cached, ttl));
+    }
+
+    private String fetchLatestVersion(String path, String key, LatestVersionCache.Entry cached, long ttl) throws IOException {
+        ProGetConnection proget = new ProGetConnection(config, logWriter);
+        HttpURLConnection connection = proget.open("GET", path);
+
+        try {
+            if (cached != null && cached.etag != null) {
+                connection.setRequestProperty("If-None-Match", cached.etag);
+            }
+
+            if (connection.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED && cached != null) {
+                proget.finish(connection);
+                LatestVersionCache.put(key, cached.version, cached.etag, ttl);
+                return cached.version;
+            }
+
+            if (connection.getResponseCode() == HttpURLConnection.HTTP_NOT_FOUND) {
+                return null;
+            }
+
+            ProGetConnection.checkResponse(connection);
+
+            String version;
+
+            try (Reader reader = new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8)) {
+                version = getLatestVersion(new JsonParser().parse(reader));
+            }
+
+            proget.finish(connection);
+
+            if (version != null) {
+                LatestVersionCache.put(key, version, connection.getHeaderField("ETag"), ttl);
+            }
+
+            return version;
+        } finally {
+            proget.release(connection);
+        }
+    }
+
+    /** The package may be returned on its own or, by older versions of ProGet, in an array */
+    private static String getLatestVersion(JsonElement json) {
+        if (json.isJsonArray()) {
+            return json.getAsJsonArray().size() == 0 ? null : getLatestVersion(json.getAsJsonArray().get(0));
+        }
+
+        if (!json.isJsonObject()) {
+            return null;
         }
 
-        return reader.fromJson(PackageVersion[].class);
+        JsonObject pkg = json.getAsJsonObject();
+
+        if (pkg.has("latestVersion") && !pkg.get("latestVersion").isJsonNull()) {
+            return pkg.get("latestVersion").getAsString();
+        }
+
+        return null;
     }
 
     /**
@@ -187,35 +504,201 @@ public class ProGetApi implements Serializable {
      * @throws IOException
      */
     public File downloadPackage(String feedName, String groupName, String packageName, String version, String toFolder, DownloadFormat downloadFormat) throws IOException {
-        boolean latest = (version == null || version.trim().isEmpty() || version.equalsIgnoreCase("latest"));
-        String path = "upack/{feed-name}/download/{group-name}/{package-name}";
+        return downloadPackage(feedName, groupName, packageName, version, toFolder, downloadFormat, 1);
+    }
+
+    /**
+     * Downloads a package and extracts its content as it arrives, the package file itself is never written to disk.
+     * 
+     * @param feedName Required
+     * @param groupName Optional
+     * @param packageName Required
+     * @param version Optional - empty string returns latest version
+     * @param toFolder Folder to extract the content to
+     * @param extractor Extracts the content
+     * @throws IOException
+     */
+    public void downloadPackageContent(String feedName, String groupName, String packageName, String version, String toFolder, PackageExtractor extractor) throws IOException {
+        ProGetConnection proget = new ProGetConnection(config, logWriter);
+        HttpURLConnection connection = proget.open("GET", getDownloadPath(feedName, groupName, packageName, version, DownloadFormat.PACKAGE));
+
+        try {
+            ProGetConnection.checkResponse(connection);
+
+            try (InputStream in = connection.getInputStream()) {
+                extractor.extract(in, new File(toFolder));
+            }
 
-        if (!latest) {
-            path += "/{package-version}";
+            proget.finish(connection);
+        } finally {
+            proget.release(connection);
         }
+    }
 
-        HttpEasy request = HttpEasy.request()
-                .path(path)
-                .authorization(config.user, config.password)
-                .urlParameters(feedName, groupName, packageName, version);
+    /**
+     * Downloads a package using a number of concurrent connections, each fetching a range of the file.  Falls back to
+     * a single connection if ProGet does not support range requests.
+     * 
+     * @param feedName Required
+     * @param groupName Optional
+     * @param packageName Required
+     * @param version Optional - empty string returns latest version
+     * @param toFolder Folder to save file to
+     * @param downloadFormat
+     * @param segments Maximum number of concurrent connections
+     * @return Reference to downloaded file
+     * @throws IOException
+     */
+    public File downloadPackage(String feedName, String groupName, String packageName, String version, String toFolder, DownloadFormat downloadFormat, int segments) throws IOException {
+        String path = getDownloadPath(feedName, groupName, packageName, version, downloadFormat);
+
+        return new SegmentedDownload(new ProGetConnection(config, logWriter), logWriter, path, segments).downloadTo(new File(toFolder));
+    }
+
+    private static String getDownloadPath(String feedName, String groupName, String packageName, String version, DownloadFormat downloadFormat) throws UnsupportedEncodingException {
+        boolean latest = isLatest(version);
+        StringBuilder path = new StringBuilder("upack/").append(encodePathSegment(feedName)).append("/download/");
+
+        if (groupName != null && !groupName.isEmpty()) {
+            for (String segment : groupName.split("/")) {
+                path.append(encodePathSegment(segment)).append("/");
+            }
+        }
+
+        path.append(encodePathSegment(packageName));
 
         if (latest) {
-            request.query("latest");
+            path.append("?latest");
+        } else {
+            path.append("/").append(encodePathSegment(version));
         }
 
         if (downloadFormat == DownloadFormat.CONTENT_AS_ZIP || downloadFormat == DownloadFormat.CONTENT_AS_TGZ) {
-            request.queryParam("contentOnly", downloadFormat.getFormat());
+            path.append(latest ? "&" : "?").append("contentOnly=").append(downloadFormat.getFormat());
         }
 
-        return request.get().downloadFile(toFolder);
+        return path.toString();
     }
 
     public void uploadPackage(String feedName, File progetPackage) throws IOException {
-        HttpEasy.request()
-                .path("upack/{feed-name}/upload")
-                .urlParameters(feedName)
-                .data(progetPackage, MediaType.ZIP)
-                .authorization(config.user, config.password)
-                .post();
+        ProGetConnection proget = new ProGetConnection(config, logWriter);
+        HttpURLConnection connection = proget.open("POST", "upack/" + encodePathSegment(feedName) + "/upload");
+
+        try {
+            connection.setDoOutput(true);
+            connection.setFixedLengthStreamingMode(progetPackage.length());
+            connection.setRequestProperty("Content-Type", MediaType.ZIP.toString());
+
+            try (OutputStream out = connection.getOutputStream()) {
+                Files.copy(progetPackage.toPath(), out);
+            }
+
+            ProGetConnection.checkResponse(connection);
+            proget.finish(connection);
+        } finally {
+            proget.release(connection);
+        }
+    }
+
+    /**
+     * Uploads a package without it first being written to disk: the writer is handed the request body and the
+     * package is sent to ProGet in chunks while it is being built.
+     * 
+     * @param feedName Feed to upload to
+     * @param writer Writes the package content
+     * @throws IOException If the package could not be built or ProGet rejected it
+     */
+    public void uploadPackage(String feedName, PackageWriter writer) throws IOException {
+        ProGetConnection proget = new ProGetConnection(config, logWriter);
+        HttpURLConnection connection = proget.openChunked("POST", "upack/" + encodePathSegment(feedName) + "/upload", MediaType.ZIP.toString());
+
+        try {
+            OutputStream out = connection.getOutputStream();
+
+            writer.writeTo(out);
+
+            // Closing the stream sends the final chunk, which completes the request.  If the writer fails the stream is
+            // left open and the connection dropped when released, so ProGet never receives a truncated package.
+            out.close();
+
+            ProGetConnection.checkResponse(connection);
+            proget.finish(connection);
+        } finally {
+            proget.release(connection);
+        }
+    }
+
+    /** Asynchronous version of {@link #getFeeds()} */
+    public CompletableFuture<Feed[]> getFeedsAsync() {
+        return async(this::getFeeds);
+    }
+
+    /** Asynchronous version of {@link #getFeed(String)} */
+    public CompletableFuture<Feed> getFeedAsync(String feedName) {
+        return async(() -> getFeed(feedName));
+    }
+
+    /** Asynchronous version of {@link #getPackages(String)} */
+    public CompletableFuture<ProGetPackage[]> getPackagesAsync(String feedId) {
+        return async(() -> getPackages(feedId));
+    }
+
+    /** Asynchronous version of {@link #getPackages(String, String)} */
+    public CompletableFuture<ProGetPackage[]> getPackagesAsync(String feedId, String groupName) {
+        return async(() -> getPackages(feedId, groupName));
+    }
+
+    /** Asynchronous version of {@link #getPackageVersions(String, String, String)} */
+    public CompletableFuture<PackageVersion[]> getPackageVersionsAsync(String feedId, String groupName, String packageName) {
+        return async(() -> getPackageVersions(feedId, groupName, packageName));
+    }
+
+    /** Asynchronous version of {@link #resolveLatestVersion(String, String, String)} */
+    public CompletableFuture<String> resolveLatestVersionAsync(String feedName, String groupName, String packageName) {
+        return async(() -> resolveLatestVersion(feedName, groupName, packageName));
+    }
+
+    /** Asynchronous version of {@link #downloadPackage(String, String, String, String, String, DownloadFormat, int)} */
+    public CompletableFuture<File> downloadPackageAsync(String feedName, String groupName, String packageName, String version, String toFolder, DownloadFormat downloadFormat,
+            int segments) {
+        return async(() -> downloadPackage(feedName, groupName, packageName, version, toFolder, downloadFormat, segments));
+    }
+
+    /** Asynchronous version of {@link #uploadPackage(String, File)} */
+    public CompletableFuture<Void> uploadPackageAsync(String feedName, File progetPackage) {
+        return async(() -> {
+            uploadPackage(feedName, progetPackage);
+            return null;
+        });
+    }
+
+    /**
+     * Run a request on the shared request executor, an IOException completes the future exceptionally with the
+     * IOException as the cause.
+     */
+    private static <T> CompletableFuture<T> async(Request<T> request) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return request.call();
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }, RequestExecutor.get());
+    }
+
+    private static String encodePathSegment(String value) throws UnsupportedEncodingException {
+        return URLEncoder.encode(value, "UTF-8").replace("+", "%20");
+    }
+
+    /** A blocking request */
+    @FunctionalInterface
+    private interface Request<T> {
+        T call() throws IOException;
+    }
+
+    /** Writes a package to a stream */
+    @FunctionalInterface
+    public interface PackageWriter {
+        void writeTo(OutputStream out) throws IOException;
     }
 }
@@ -0,0 +1,225 @@
+package com.inedo.proget.api;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.security.cert.X509Certificate;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509TrustManager;
+
+/**
+ * The connection settings for a ProGet server, shared by every request made to it from this JVM.
+ *
+ * Settings are held by the client and applied to each request rather than set globally, so requests for different
+ * configurations can't interfere with each other.  Finished responses are closed rather than disconnected so that
+ * the JDK can keep their sockets alive and reuse them, along with their TLS sessions, for the next request.  The number
+ * of requests open to a host at once is limited, further requests wait for one to finish, and every request has a
+ * connect and read timeout so that a stalled response can't hold on to its place forever.
+ *
+ * @author Andrew Sumner
+ */
+class ProGetClient {
+    /** Maximum number of concurrent requests to a host, can be overridden with a system property */
+    static final int MAX_CONNECTIONS_PER_HOST = Integer.getInteger(ProGetClient.class.getName() + ".maxConnectionsPerHost", 10);
+
+    /** Milliseconds to wait for a connection to ProGet, can be overridden with a system property */
+    static final int CONNECT_TIMEOUT = Integer.getInteger(ProGetClient.class.getName() + ".connectTimeout", 30_000);
+
+    /** Milliseconds to wait for data from ProGet before giving up on a request, can be overridden with a system property */
+    static final int READ_TIMEOUT = Integer.getInteger(ProGetClient.class.getName() + ".readTimeout", 300_000);
+
+    /** Clients for configurations that are no longer used are dropped once there are more than this */
+    private static final int MAX_CLIENTS = 32;
+
+    // Keyed by a hash of the settings so passwords aren't held in the key
+    private static final Map<String, ProGetClient> CLIENTS = new LinkedHashMap<String, ProGetClient>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, ProGetClient> eldest) {
+            return size() > MAX_CLIENTS;
+        }
+    };
+    private static final Map<String, Semaphore> HOST_PERMITS = new ConcurrentHashMap<>();
+    private static final HostnameVerifier TRUST_ALL_HOSTS = (hostname, session) -> true;
+    private static SSLSocketFactory trustAllSocketFactory = null;
+
+    private final String baseUrl;
+    private final String authorization;
+    private final boolean trustAllCertificates;
+    private final Semaphore permits;
+    private final Set<HttpURLConnection> active = ConcurrentHashMap.newKeySet();
+
+    private ProGetClient(ProGetConfig config) throws IOException {
+        URL url = new URL(config.url);
+
+        this.baseUrl = config.url.endsWith("/") ? config.url : config.url + "/";
+        this.trustAllCertificates = config.trustAllCertificates;
+        this.permits = HOST_PERMITS.computeIfAbsent(url.getHost() + ":" + url.getPort(), host -> new Semaphore(MAX_CONNECTIONS_PER_HOST, true));
+
+        if (config.user != null && !config.user.isEmpty()) {
+            String credentials = config.user + ":" + (config.password == null ? "" : config.password);
+            this.authorization = "Basic " + Base64.getEncoder().encodeToString(credentials.getBytes(StandardCharsets.UTF_8));
+        } else {
+            this.authorization = null;
+        }
+    }
+
+    /**
+     * Get the client for a configuration, creating it if this is the first request made with those settings.
+     */
+    static ProGetClient of(ProGetConfig config) throws IOException {
+        String key = hash(String.join("\n", config.url, String.valueOf(config.user), String.valueOf(config.password), String.valueOf(config.trustAllCertificates)));
+
+        synchronized (CLIENTS) {
+            ProGetClient client = CLIENTS.get(key);
+
+            if (client == null) {
+                client = new ProGetClient(config);
+                CLIENTS.put(key, client);
+            }
+
+            return client;
+        }
+    }
+
+    /**
+     * A hash of the credentials in a configuration, for keys that must tell users apart without holding their passwords.
+     */
+    static String hashCredentials(ProGetConfig config) {
+        return hash(String.join("\n", String.valueOf(config.user), String.valueOf(config.password), String.valueOf(config.apiKey)));
+    }
+
+    /** SHA-256 hash of settings that may contain passwords, for use as a key */
+    static String hash(String settings) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+
+            return Base64.getEncoder().encodeToString(digest.digest(settings.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    String getBaseUrl() {
+        return baseUrl;
+    }
+
+    /**
+     * Open a connection, waiting if the host already has the maximum number of requests open.  Every connection must
+     * be passed to {@link #release(HttpURLConnection)} once it is no longer needed.
+     *
+     * @param method HTTP method
+     * @param path Path, including any query string, with parameters already encoded
+     * @return An unconnected HttpURLConnection
+     */
+    HttpURLConnection open(String method, String path) throws IOException {
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for a connection to " + baseUrl);
+        }
+
+        try {
+            URL url = new URL(baseUrl + (path.startsWith("/") ? path.substring(1) : path));
+            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+            connection.setRequestMethod(method);
+            connection.setConnectTimeout(CONNECT_TIMEOUT);
+            connection.setReadTimeout(READ_TIMEOUT);
+
+            if (authorization != null) {
+                connection.setRequestProperty("Authorization", authorization);
+            }
+
+            if (trustAllCertificates && connection instanceof HttpsURLConnection) {
+                HttpsURLConnection https = (HttpsURLConnection) connection;
+
+                https.setSSLSocketFactory(getTrustAllSocketFactory());
+                https.setHostnameVerifier(TRUST_ALL_HOSTS);
+            }
+
+            active.add(connection);
+
+            return connection;
+        } catch (IOException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Finish with a connection whose response has been read, the socket is kept open for reuse.
+     */
+    void finish(HttpURLConnection connection) {
+        if (!active.remove(connection)) {
+            return;
+        }
+
+        try (InputStream in = connection.getInputStream()) {
+            // Closing the response returns the socket to the keep alive cache
+        } catch (IOException e) {
+            connection.disconnect();
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * Release a connection that has not been finished, eg because the request failed, the socket is closed.
+     */
+    void release(HttpURLConnection connection) {
+        if (connection != null && active.remove(connection)) {
+            connection.disconnect();
+            permits.release();
+        }
+    }
+
+    private static synchronized SSLSocketFactory getTrustAllSocketFactory() throws IOException {
+        // A single factory is shared so its TLS sessions can be resumed, and pooled sockets matched to it
+        if (trustAllSocketFactory == null) {
+            TrustManager[] trustAll = new TrustManager[] { new X509TrustManager() {
+                @Override
+                public X509Certificate[] getAcceptedIssuers() {
+                    return new X509Certificate[0];
+                }
+
+                @Override
+                public void checkClientTrusted(X509Certificate[] certs, String authType) {
+                }
+
+                @Override
+                public void checkServerTrusted(X509Certificate[] certs, String authType) {
+                }
+            } };
+
+            try {
+                SSLContext context = SSLContext.getInstance("TLS");
+                context.init(null, trustAll, new SecureRandom());
+                trustAllSocketFactory = context.getSocketFactory();
+            } catch (GeneralSecurityException e) {
+                throw new IOException("Unable to disable certificate verification", e);
+            }
+        }
+
+        return trustAllSocketFactory;
+    }
+}
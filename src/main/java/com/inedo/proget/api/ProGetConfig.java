@@ -17,5 +17,9 @@ public class ProGetConfig implements Serializable {
     public String password;
     public boolean logApiRequests;
     public boolean trustAllCertificates;
+    public int compressionThreads;
+    public long packageCacheSize;
+    public int latestVersionCacheSeconds;
+    public int metadataCacheSeconds;
 
 }
@@ -0,0 +1,141 @@
+package com.inedo.proget.api;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.regex.Pattern;
+
+import org.apache.commons.io.IOUtils;
+
+import com.inedo.proget.jenkins.utils.JenkinsLogWriter;
+
+/**
+ * Makes requests to ProGet for a single caller, through the {@link ProGetClient} shared by everyone using the same
+ * configuration.
+ *
+ * Connections returned by {@link #open} must be passed to {@link #finish} once their response has been read, so the
+ * socket can be reused, and to {@link #release} in a finally block so failed requests don't hold on to them.
+ *
+ * @author Andrew Sumner
+ */
+class ProGetConnection {
+    private static final int CHUNK_SIZE = 64 * 1024;
+    private static final Pattern API_KEY = Pattern.compile("(?i)(API_Key=)[^&]*");
+
+    private final ProGetConfig config;
+    private final JenkinsLogWriter logWriter;
+    private final ProGetClient client;
+
+    ProGetConnection(ProGetConfig config, JenkinsLogWriter logWriter) throws IOException {
+        this.config = config;
+        this.logWriter = logWriter;
+        this.client = ProGetClient.of(config);
+    }
+
+    /**
+     * Open a connection to the given path, relative to the configured ProGet url.
+     *
+     * @param method HTTP method
+     * @param path Path, including any query string, with parameters already encoded
+     * @return An unconnected HttpURLConnection
+     * @throws IOException If the url is invalid
+     */
+    HttpURLConnection open(String method, String path) throws IOException {
+        HttpURLConnection connection = client.open(method, path);
+
+        if (config.logApiRequests && logWriter != null) {
+            logWriter.info(method + " " + API_KEY.matcher(connection.getURL().toString()).replaceAll("$1*****"));
+        }
+
+        return connection;
+    }
+
+    /**
+     * Finish with a connection whose response has been read.
+     */
+    void finish(HttpURLConnection connection) {
+        client.finish(connection);
+    }
+
+    /**
+     * Release a connection, if it hasn't been finished the request is treated as failed and its socket closed.
+     */
+    void release(HttpURLConnection connection) {
+        client.release(connection);
+    }
+
+    /**
+     * Open a connection that sends its body using chunked transfer encoding, so the content can be written as it is
+     * generated rather than buffered in memory or on disk first.
+     */
+    HttpURLConnection openChunked(String method, String path, String contentType) throws IOException {
+        HttpURLConnection connection = open(method, path);
+
+        connection.setDoOutput(true);
+        connection.setChunkedStreamingMode(CHUNK_SIZE);
+        connection.setRequestProperty("Content-Type", contentType);
+
+        return connection;
+    }
+
+    /**
+     * Throws an IOException containing the servers response if the request failed.
+     *
+     * @return The response code
+     */
+    static int checkResponse(HttpURLConnection connection) throws IOException {
+        int code = connection.getResponseCode();
+
+        if (code >= 400) {
+            String message = connection.getResponseMessage();
+
+            try (InputStream error = connection.getErrorStream()) {
+                if (error != null) {
+                    String body = IOUtils.toString(error, StandardCharsets.UTF_8);
+
+                    if (!body.isEmpty()) {
+                        message = body;
+                    }
+                }
+            }
+
+            throw new IOException("Server returned HTTP response code: " + code + " for URL: " + connection.getURL() + " - " + message);
+        }
+
+        return code;
+    }
+
+    /**
+     * The name of the file being downloaded, taken from the Content-Disposition header or failing that the url.
+     */
+    static String getFileName(HttpURLConnection connection) throws IOException {
+        String disposition = connection.getHeaderField("Content-Disposition");
+
+        if (disposition != null) {
+            for (String part : disposition.split(";")) {
+                String[] pair = part.trim().split("=", 2);
+
+                if (pair.length == 2 && pair[0].trim().equalsIgnoreCase("filename")) {
+                    String name = pair[1].trim();
+
+                    if (name.startsWith("\"") && name.endsWith("\"") && name.length() > 1) {
+                        name = name.substring(1, name.length() - 1);
+                    }
+
+                    name = new File(name.replace('\\', '/')).getName();
+
+                    if (!name.isEmpty()) {
+                        return name;
+                    }
+                }
+            }
+        }
+
+        String urlPath = connection.getURL().getPath();
+
+        return URLDecoder.decode(urlPath.substring(urlPath.lastIndexOf('/') + 1), "UTF-8");
+    }
+}
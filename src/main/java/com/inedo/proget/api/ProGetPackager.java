@@ -1,29 +1,36 @@
 package com.inedo.proget.api;
 
-import java.io.BufferedOutputStream;
-import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.Reader;
 import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Enumeration;
+import java.util.Deque;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map.Entry;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipException;
 import java.util.zip.ZipFile;
-import java.util.zip.ZipOutputStream;
 
-import org.apache.tools.ant.types.FileSet;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
 
 import com.inedo.proget.domain.PackageMetadata;
 
-import hudson.Util;
-
 public class ProGetPackager implements Serializable {
     private static final long serialVersionUID = 1L;
 
@@ -32,9 +39,13 @@ public class ProGetPackager implements Serializable {
 
     private static final String PACKAGE = "package";
     private final String fileSeparatorChar;
-    private File sourceFolder;
-    private File zipFile;
-    private ZipOutputStream zos = null;
+    private int compressionThreads = 0;
+    private CompressionPolicy compressionPolicy = CompressionPolicy.defaultPolicy();
+    private transient File sourceFolder;
+    private transient PackageZipWriter zip = null;
+    private File entryCacheFolder = null;
+    private transient PackageEntryCache entryCache = null;
+    private AtomicInteger reusedEntries = new AtomicInteger();
 
     public ProGetPackager() {
         // Generally '/' is regarded as most robust character file separator character to use
@@ -47,27 +58,80 @@ public class ProGetPackager implements Serializable {
     }
 
     public File createPackage(File baseFolder, List<ZipItem> files, PackageMetadata metadata) throws IOException {
-        FileOutputStream fos = null;
+        File zipFile = new File(baseFolder, metadata.packageName.replace(" ", "") + ".upack");
+
+        try (OutputStream out = new FileOutputStream(zipFile)) {
+            writePackage(baseFolder, files, metadata, out);
+        }
+
+        return zipFile;
+    }
+
+    /**
+     * Number of threads used to compress files, anything less than one will use a thread per available processor.
+     */
+    public void setCompressionThreads(int threads) {
+        this.compressionThreads = threads;
+    }
+
+    /**
+     * Controls the deflate level and whether files that are already compressed are stored rather than deflated.
+     */
+    public void setCompressionPolicy(CompressionPolicy policy) {
+        this.compressionPolicy = policy;
+    }
 
+    /**
+     * Keep a copy of each package built in this folder so the next build of the same package can reuse the compressed
+     * data of files that haven't changed rather than compressing them again.
+     * 
+     * @param folder Cache folder, or null to disable
+     */
+    public void setEntryCache(File folder) {
+        this.entryCacheFolder = folder;
+    }
+
+    /** Number of files in the last package written that were copied from the entry cache rather than compressed */
+    public int getReusedEntries() {
+        return reusedEntries.get();
+    }
+
+    /**
+     * Writes the package to the supplied stream rather than a file, eg straight into an upload request body.
+     * 
+     * The stream is not closed.
+     */
+    public void writePackage(File baseFolder, List<ZipItem> files, PackageMetadata metadata, OutputStream out) throws IOException {
         this.sourceFolder = baseFolder;
-        this.zipFile = new File(sourceFolder, metadata.packageName.replace(" ", "") + ".upack");
+        this.reusedEntries = new AtomicInteger();
+
+        if (entryCacheFolder != null) {
+            entryCache = new PackageEntryCache(entryCacheFolder, metadata.packageName, compressionPolicy.key());
+            out = entryCache.tee(out);
+        }
 
         try {
-            fos = new FileOutputStream(zipFile);
-            zos = new ZipOutputStream(fos);
+            zip = new PackageZipWriter(out);
 
             appendMetadata(metadata);
             appendFiles(files, PACKAGE + fileSeparatorChar);
+
+            zip.finish();
+
+            if (entryCache != null) {
+                entryCache.commit();
+            }
         } finally {
-            if (zos != null)
-                zos.closeEntry();
-            if (zos != null)
-                zos.close();
-            if (fos != null)
-                fos.close();
-        }
+            if (zip != null) {
+                zip.close();
+                zip = null;
+            }
 
-        return zipFile;
+            if (entryCache != null) {
+                entryCache.discard();
+                entryCache = null;
+            }
+        }
     }
 
     private void appendMetadata(PackageMetadata metadata) throws IOException {
@@ -109,44 +173,98 @@ public class ProGetPackager implements Serializable {
 
         sb.append(newLine).append("}");
 
-        ZipEntry ze = new ZipEntry("upack.json");
-        byte[] buffer = new byte[1024];
-        int len;
-
-        zos.putNextEntry(ze);
-
-        try (InputStream in = new ByteArrayInputStream(sb.toString().getBytes());) {
-            while ((len = in.read(buffer)) > 0) {
-                zos.write(buffer, 0, len);
-            }
-        }
+        writeEntry(CompressedEntry.deflate(sb.toString().getBytes(), "upack.json", System.currentTimeMillis()));
     }
 
     private boolean isProvided(String value) {
         return value != null && !value.isEmpty();
     }
 
+    /**
+     * Files are compressed on a pool of worker threads and written to the package in the order they were supplied.
+     * Only a limited number of compressed entries are held at once so memory use does not grow with the package size.
+     */
     private void appendFiles(List<ZipItem> files, String destinationFolder) throws IOException {
-        for (ZipItem entry : files) {
-            File source = new File(sourceFolder, entry.getSourceFile());
-            String destination = destinationFolder + entry.getDestinationFile();
+        int threads = compressionThreads > 0 ? compressionThreads : Runtime.getRuntime().availableProcessors();
+
+        if (threads == 1) {
+            for (ZipItem entry : files) {
+                writeEntry(compress(entry, destinationFolder));
+            }
 
-            appendFile(source, destination);
+            return;
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads, new DaemonThreadFactory("ProGet packager"));
+        Deque<Future<CompressedEntry>> pending = new ArrayDeque<>();
+        Iterator<ZipItem> iterator = files.iterator();
+        int window = threads * 2;
+
+        try {
+            while (iterator.hasNext() || !pending.isEmpty()) {
+                while (iterator.hasNext() && pending.size() < window) {
+                    ZipItem entry = iterator.next();
+
+                    pending.add(pool.submit(() -> compress(entry, destinationFolder)));
+                }
+
+                writeEntry(await(pending.poll()));
+            }
+        } finally {
+            pool.shutdown();
+
+            // Only non empty if packaging failed, wait for in flight entries so their temporary files can be removed
+            for (Future<CompressedEntry> future : pending) {
+                try {
+                    future.get().release();
+                } catch (Exception e) {
+                    // Failure already reported, nothing to release
+                }
+            }
         }
     }
 
-    private void appendFile(File file, String destination) throws IOException, FileNotFoundException {
-        ZipEntry ze = new ZipEntry(destination);
-        byte[] buffer = new byte[1024];
-        int len;
+    private CompressedEntry compress(ZipItem entry, String destinationFolder) throws IOException {
+        File file = new File(sourceFolder, entry.getSourceFile());
+        String name = destinationFolder + entry.getDestinationFile();
 
-        zos.putNextEntry(ze);
+        if (entryCache != null) {
+            CompressedEntry cached = entryCache.lookup(name, file);
 
-        try (FileInputStream in = new FileInputStream(file)) {
-            while ((len = in.read(buffer)) > 0) {
-                zos.write(buffer, 0, len);
+            if (cached != null) {
+                reusedEntries.incrementAndGet();
+                return cached;
             }
         }
+
+        return CompressedEntry.deflate(file, name, compressionPolicy.levelFor(file));
+    }
+
+    private void writeEntry(CompressedEntry entry) throws IOException {
+        try {
+            long dataOffset = zip.write(entry);
+
+            if (entryCache != null) {
+                entryCache.written(entry, dataOffset);
+            }
+        } finally {
+            entry.release();
+        }
+    }
+
+    private static CompressedEntry await(Future<CompressedEntry> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while compressing package");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+
+            throw new IOException(e.getCause());
+        }
     }
 
     /**
@@ -159,102 +277,132 @@ public class ProGetPackager implements Serializable {
      * @throws ZipException
      */
     public static void unpackContent(File pkg) throws IOException {
-        try (ZipFile archive = new ZipFile(pkg)) {
-            File extractTo = pkg.getParentFile();
+        unpackContent(pkg, 0);
+    }
 
-            Enumeration<? extends ZipEntry> e = archive.entries();
+    /**
+     * As {@link #unpackContent(File)}, extracting files on multiple threads.
+     * 
+     * @param pkg
+     * @param threads Number of threads to extract with, anything less than one will use a thread per available processor
+     */
+    public static void unpackContent(File pkg, int threads) throws IOException {
+        new PackageExtractor(threads).extract(pkg);
+    }
 
-            while (e.hasMoreElements()) {
-                ZipEntry entry = e.nextElement();
+    /**
+     * Read the metadata from the upack.json file of a package, as written by {@link #createPackage(File, List, PackageMetadata)}.
+     * 
+     * @param pkg Package file
+     * @return The package metadata
+     * @throws IOException If the file is not a universal package
+     */
+    public static PackageMetadata readMetadata(File pkg) throws IOException {
+        try (ZipFile zipFile = new ZipFile(pkg)) {
+            ZipEntry entry = zipFile.getEntry("upack.json");
 
-                String entryName = new File(entry.getName()).getPath();
-                if (entryName.equals(PACKAGE + WINDOWS_SEPARATOR) || entryName.equals(PACKAGE + UNIX_SEPARATOR)) {
-                    continue;
-                }
+            if (entry == null) {
+                throw new IOException(pkg.getName() + " does not contain upack.json");
+            }
 
-                if (entryName.startsWith(PACKAGE + WINDOWS_SEPARATOR) || entryName.startsWith(PACKAGE + UNIX_SEPARATOR)) {
-                    entryName = entryName.substring(PACKAGE.length() + 1);
-                }
+            JsonElement json;
 
-                File file = new File(extractTo, entryName);
-                if (entry.isDirectory()) {
-                    if (!file.exists()) {
-                        file.mkdirs();
-                    }
-                } else {
-                    if (!file.getParentFile().exists()) {
-                        file.getParentFile().mkdirs();
-                    }
+            try (Reader reader = new InputStreamReader(zipFile.getInputStream(entry), StandardCharsets.UTF_8)) {
+                json = new JsonParser().parse(reader);
+            } catch (JsonParseException e) {
+                throw new IOException("Unable to read upack.json from " + pkg.getName(), e);
+            }
 
-                    InputStream in = archive.getInputStream(entry);
+            if (!json.isJsonObject()) {
+                throw new IOException("Unable to read upack.json from " + pkg.getName());
+            }
 
-                    try (BufferedOutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+            JsonObject upack = json.getAsJsonObject();
+            PackageMetadata metadata = new PackageMetadata();
 
-                        byte[] buffer = new byte[8192];
-                        int read;
+            metadata.group = getString(upack, "group");
+            metadata.packageName = getString(upack, "name");
+            metadata.version = getString(upack, "version");
+            metadata.title = getString(upack, "title");
+            metadata.icon = getString(upack, "icon");
+            metadata.description = getString(upack, "description");
 
-                        while (-1 != (read = in.read(buffer))) {
-                            out.write(buffer, 0, read);
-                        }
-                        in.close();
+            if (upack.has("dependencies") && upack.get("dependencies").isJsonArray()) {
+                for (JsonElement dependency : upack.getAsJsonArray("dependencies")) {
+                    if (dependency.isJsonPrimitive()) {
+                        metadata.dependencies.add(dependency.getAsString());
                     }
                 }
             }
+
+            return metadata;
         }
     }
 
-    public List<ZipItem> getFileList(File baseFolder, String artifacts, String excludes, boolean isDefaultExcludes, boolean isCaseSensitive) {
-        List<ZipItem> files = new ArrayList<ZipItem>();
-
-        FileSet fileSet = Util.createFileSet(baseFolder, removeTrimFolderMarker(artifacts), excludes);
-        fileSet.setDefaultexcludes(isDefaultExcludes);
-        fileSet.setCaseSensitive(isCaseSensitive);
+    private static String getString(JsonObject json, String name) {
+        JsonElement value = json.get(name);
 
-        for (String f : fileSet.getDirectoryScanner().getIncludedFiles()) {
-            files.add(new ZipItem(f));
-        }
-
-        String[] includes = artifacts.split(",");
-        for (String prefix : includes) {
-            prefix = prefix.trim();
+        return value == null || !value.isJsonPrimitive() ? null : value.getAsString();
+    }
 
-            if (!prefix.startsWith("[")) {
-                continue;
-            }
+    public List<ZipItem> getFileList(File baseFolder, String artifacts, String excludes, boolean isDefaultExcludes, boolean isCaseSensitive) {
+        FileList files = new FileList(new TrimFolders(artifacts, File.separatorChar), File.separatorChar, fileSeparatorChar.charAt(0));
 
-            int index = prefix.indexOf("]");
-            if (index < 0) {
-                continue;
-            }
+        new WorkspaceScanner(removeTrimFolderMarker(artifacts), excludes, isDefaultExcludes, isCaseSensitive).scan(baseFolder, files);
 
-            prefix = prefix.substring(1, index);
-            prefix = prefix.replace(UNIX_SEPARATOR, File.separator);
+        return files;
+    }
 
-            if (!prefix.endsWith(File.separator)) {
-                prefix += File.separator;
-            }
+    /**
+     * Find the files for a number of packages with a single scan of the base folder.
+     *
+     * @param baseFolder Folder to scan
+     * @param selections The files to select for each package
+     * @return The files for each selection, in the same order as the selections
+     */
+    public List<List<ZipItem>> getFileLists(File baseFolder, List<FileSelection> selections) {
+        List<WorkspaceScanner> scanners = new ArrayList<>();
+        List<FileList> lists = new ArrayList<>();
 
-            for (ZipItem file : files) {
-                if (file.getSourceFile().startsWith(prefix)) {
-                    file.setDesinationFile(file.getSourceFile().substring(prefix.length()));
-                }
-            }
+        for (FileSelection selection : selections) {
+            scanners.add(new WorkspaceScanner(removeTrimFolderMarker(selection.artifacts), selection.excludes, selection.defaultExcludes, selection.caseSensitive));
+            lists.add(new FileList(new TrimFolders(selection.artifacts, File.separatorChar), File.separatorChar, fileSeparatorChar.charAt(0)));
         }
 
-        if (!File.separator.equals(fileSeparatorChar)) {
-            for (ZipItem file : files) {
-                file.setDesinationFile(file.getDestinationFile().replace(File.separator, fileSeparatorChar));
-            }
-        }
+        WorkspaceScanner.scan(baseFolder, scanners, lists);
 
-        return files;
+        return new ArrayList<>(lists);
     }
 
     private String removeTrimFolderMarker(String pattern) {
         return pattern.replace("[", "").replace("]", "");
     }
 
-    public class ZipItem {
+    /**
+     * The include and exclude patterns selecting the files for a package, as per
+     * {@link #getFileList(File, String, String, boolean, boolean)}.
+     */
+    public static class FileSelection implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final String artifacts;
+        private final String excludes;
+        private final boolean defaultExcludes;
+        private final boolean caseSensitive;
+
+        public FileSelection(String artifacts, String excludes, boolean defaultExcludes, boolean caseSensitive) {
+            this.artifacts = artifacts;
+            this.excludes = excludes;
+            this.defaultExcludes = defaultExcludes;
+            this.caseSensitive = caseSensitive;
+        }
+
+        public String getArtifacts() {
+            return artifacts;
+        }
+    }
+
+    public static class ZipItem {
         private final String sourceFile;
         private String destinationFile;
 
@@ -280,4 +428,4 @@ public class ProGetPackager implements Serializable {
             this.destinationFile = value;
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,42 @@
+package com.inedo.proget.api;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the asynchronous ProGet requests.
+ *
+ * On a JVM with virtual threads each request gets its own virtual thread, a request waiting on the network then costs
+ * next to nothing and the number of requests actually sent at once is bounded by {@link ProGetClient}.  Otherwise the
+ * requests share a bounded pool of daemon threads sized to match that limit.  The plugin is built for Java 8 so
+ * virtual threads are looked up by reflection.
+ *
+ * @author Andrew Sumner
+ */
+class RequestExecutor {
+    private static final ExecutorService EXECUTOR = create();
+
+    private RequestExecutor() {
+    }
+
+    static ExecutorService get() {
+        return EXECUTOR;
+    }
+
+    private static ExecutorService create() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // Not available before Java 21
+        }
+
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(ProGetClient.MAX_CONNECTIONS_PER_HOST, ProGetClient.MAX_CONNECTIONS_PER_HOST, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), new DaemonThreadFactory("ProGet request"));
+        pool.allowCoreThreadTimeOut(true);
+
+        return pool;
+    }
+}
@@ -0,0 +1,425 @@
+package com.inedo.proget.api;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.inedo.proget.jenkins.utils.JenkinsLogWriter;
+
+/**
+ * Downloads a file as a number of byte ranges fetched concurrently into a preallocated file.  If the connection for
+ * a range fails it is resumed from where it got to rather than starting again.
+ *
+ * The first request asks for the whole file from byte 0: if the server answers with a partial content response it
+ * supports ranges and that response becomes the first segment, otherwise the file is downloaded as a single stream.
+ * Later requests use If-Range so that a package replaced part way through the download is detected rather than
+ * producing a corrupt file.
+ *
+ * If a segmented download fails the part file is kept along with a state file recording the validator and how far each
+ * segment got, and the next download of the file resumes from there if the server still has the same version of it.
+ *
+ * @author Andrew Sumner
+ */
+class SegmentedDownload {
+    /** Files are not split into segments smaller than this */
+    private static final long MIN_SEGMENT_SIZE = 8 * 1024 * 1024;
+    private static final int MAX_ATTEMPTS = 5;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int STATE_VERSION = 1;
+
+    private final ProGetConnection connection;
+    private final JenkinsLogWriter logWriter;
+    private final String path;
+    private final int segments;
+    private String validator = null;
+
+    /**
+     * @param connection Connection to ProGet
+     * @param logWriter Reports resumed segments, may be null
+     * @param path Path of the file to download
+     * @param segments Maximum number of ranges to download concurrently
+     */
+    SegmentedDownload(ProGetConnection connection, JenkinsLogWriter logWriter, String path, int segments) {
+        this.connection = connection;
+        this.logWriter = logWriter;
+        this.path = path;
+        this.segments = Math.max(1, segments);
+    }
+
+    /**
+     * Download the file.
+     *
+     * @param folder Folder to save the file to, the file name is taken from the response
+     * @return The downloaded file
+     */
+    File downloadTo(File folder) throws IOException {
+        HttpURLConnection probe = connection.open("GET", path);
+        probe.setRequestProperty("Range", "bytes=0-");
+
+        try {
+            ProGetConnection.checkResponse(probe);
+
+            if (!folder.isDirectory() && !folder.mkdirs()) {
+                throw new IOException("Unable to create folder " + folder);
+            }
+
+            File file = new File(folder, ProGetConnection.getFileName(probe));
+            File part = new File(folder, file.getName() + ".part");
+            File state = new File(folder, file.getName() + ".part.state");
+            long length = getTotalLength(probe);
+            boolean resumable = false;
+
+            try {
+                if (probe.getResponseCode() == HttpURLConnection.HTTP_PARTIAL && length >= 0) {
+                    validator = probe.getHeaderField("ETag") != null ? probe.getHeaderField("ETag") : probe.getHeaderField("Last-Modified");
+
+                    try {
+                        downloadSegments(probe, part, state, length);
+                    } catch (PackageChangedException e) {
+                        throw e;
+                    } catch (IOException e) {
+                        resumable = state.exists();
+                        throw e;
+                    }
+                } else {
+                    downloadStream(probe, part);
+                }
+
+                Files.move(part.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                if (!resumable) {
+                    part.delete();
+                    state.delete();
+                }
+            }
+
+            return file;
+        } finally {
+            connection.release(probe);
+        }
+    }
+
+    /** The total size of the file from the Content-Range header, or -1 if not known */
+    private static long getTotalLength(HttpURLConnection connection) {
+        String range = connection.getHeaderField("Content-Range");
+
+        if (range == null || range.indexOf('/') < 0) {
+            return -1;
+        }
+
+        try {
+            return Long.parseLong(range.substring(range.indexOf('/') + 1).trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private void downloadStream(HttpURLConnection response, File part) throws IOException {
+        long expected = response.getContentLengthLong();
+        long written = 0;
+
+        try (InputStream in = response.getInputStream(); OutputStream out = new FileOutputStream(part)) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+
+            while (-1 != (read = in.read(buffer))) {
+                out.write(buffer, 0, read);
+                written += read;
+            }
+        }
+
+        connection.finish(response);
+
+        if (expected >= 0 && written != expected) {
+            throw new IOException(String.format("Download of %s incomplete, received %d of %d bytes", path, written, expected));
+        }
+    }
+
+    private void downloadSegments(HttpURLConnection first, File part, File state, long length) throws IOException {
+        List<Segment> ranges = part.exists() ? readState(state, length) : null;
+
+        if (ranges == null) {
+            int count = (int) Math.max(1, Math.min(segments, length / MIN_SEGMENT_SIZE));
+            long size = (length + count - 1) / count;
+            ranges = new ArrayList<>();
+
+            for (long start = 0; start < length || ranges.isEmpty(); start += size) {
+                ranges.add(new Segment(start, Math.min(start + size, length) - 1));
+            }
+        } else {
+            if (logWriter != null) {
+                logWriter.info(String.format("Resuming download of %s, %d of %d bytes already downloaded", path, getReceived(ranges), length));
+            }
+
+            // The first response starts at byte 0, so each segment asks for the rest of its range instead
+            first = null;
+        }
+
+        // Only a download that fails part way through leaves a state file behind
+        state.delete();
+
+        try {
+            downloadSegments(first, part, ranges, length);
+        } catch (PackageChangedException e) {
+            throw e;
+        } catch (IOException e) {
+            writeState(state, ranges, length);
+            throw e;
+        }
+    }
+
+    private void downloadSegments(HttpURLConnection first, File part, List<Segment> ranges, long length) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(part, "rw")) {
+            file.setLength(length);
+            FileChannel channel = file.getChannel();
+
+            if (ranges.size() == 1) {
+                download(ranges.get(0), first, channel);
+            } else {
+                ExecutorService pool = Executors.newFixedThreadPool(ranges.size() - 1, new DaemonThreadFactory("ProGet download"));
+                List<Future<Void>> results = new ArrayList<>();
+
+                try {
+                    for (Segment segment : ranges.subList(1, ranges.size())) {
+                        if (!segment.isComplete()) {
+                            results.add(pool.submit(() -> {
+                                download(segment, null, channel);
+                                return null;
+                            }));
+                        }
+                    }
+
+                    download(ranges.get(0), first, channel);
+
+                    for (Future<Void> result : results) {
+                        result.get();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Download interrupted");
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof IOException) {
+                        throw (IOException) e.getCause();
+                    }
+
+                    throw new IOException(e.getCause());
+                } finally {
+                    pool.shutdownNow();
+                }
+            }
+        }
+
+        // The file was sized up front, so count what each segment actually wrote
+        boolean complete = true;
+
+        for (Segment segment : ranges) {
+            complete &= segment.isComplete();
+        }
+
+        if (!complete) {
+            throw new IOException(String.format("Download of %s incomplete, received %d of %d bytes", path, getReceived(ranges), length));
+        }
+    }
+
+    private static long getReceived(List<Segment> ranges) {
+        long received = 0;
+
+        for (Segment segment : ranges) {
+            received += segment.position - segment.start;
+        }
+
+        return received;
+    }
+
+    /** Record how far each segment got so a later download of the same file can resume */
+    private void writeState(File state, List<Segment> ranges, long length) {
+        if (validator == null) {
+            return;
+        }
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(state)))) {
+            out.writeInt(STATE_VERSION);
+            out.writeUTF(validator);
+            out.writeLong(length);
+            out.writeInt(ranges.size());
+
+            for (Segment segment : ranges) {
+                out.writeLong(segment.start);
+                out.writeLong(segment.end);
+                out.writeLong(segment.position);
+            }
+        } catch (IOException e) {
+            // Without the state the download just starts again next time
+            state.delete();
+        }
+    }
+
+    /**
+     * The segments of an earlier attempt to download this version of the file, or null if there was none or it can't
+     * be trusted.
+     */
+    private List<Segment> readState(File state, long length) {
+        if (validator == null || !state.exists()) {
+            return null;
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(state)))) {
+            if (in.readInt() != STATE_VERSION || !validator.equals(in.readUTF()) || in.readLong() != length) {
+                return null;
+            }
+
+            int count = in.readInt();
+            List<Segment> ranges = new ArrayList<>();
+            long next = 0;
+
+            for (int i = 0; i < count; i++) {
+                Segment segment = new Segment(in.readLong(), in.readLong());
+                segment.position = in.readLong();
+
+                // The segments must cover the file in order
+                if (segment.start != next || segment.end < segment.start || segment.position < segment.start || segment.position > segment.end + 1) {
+                    return null;
+                }
+
+                ranges.add(segment);
+                next = segment.end + 1;
+            }
+
+            return next == length && !ranges.isEmpty() ? ranges : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Download a range, resuming from the last byte received if the connection fails.
+     *
+     * @param response An already open response for the start of the range, or null to request it
+     */
+    private void download(Segment segment, HttpURLConnection response, FileChannel channel) throws IOException {
+        if (segment.isComplete()) {
+            return;
+        }
+
+        for (int attempt = 1;; attempt++) {
+            try {
+                if (response == null) {
+                    response = requestRange(segment);
+                }
+
+                copyRange(response, segment, channel);
+                connection.finish(response);
+
+                return;
+            } catch (IOException e) {
+                if (attempt >= MAX_ATTEMPTS || Thread.currentThread().isInterrupted() || e instanceof PackageChangedException) {
+                    throw e;
+                }
+
+                if (logWriter != null) {
+                    logWriter.info(String.format("Download of bytes %d-%d failed (%s), resuming from byte %d", segment.start, segment.end, e.getMessage(), segment.position));
+                }
+
+                pause(attempt);
+            } finally {
+                connection.release(response);
+                response = null;
+            }
+        }
+    }
+
+    private HttpURLConnection requestRange(Segment segment) throws IOException {
+        HttpURLConnection response = connection.open("GET", path);
+        response.setRequestProperty("Range", "bytes=" + segment.position + "-" + segment.end);
+
+        if (validator != null) {
+            response.setRequestProperty("If-Range", validator);
+        }
+
+        try {
+            ProGetConnection.checkResponse(response);
+
+            if (response.getResponseCode() != HttpURLConnection.HTTP_PARTIAL) {
+                throw new PackageChangedException("Package " + path + " changed while it was being downloaded");
+            }
+        } catch (IOException e) {
+            connection.release(response);
+            throw e;
+        }
+
+        return response;
+    }
+
+    private static void copyRange(HttpURLConnection response, Segment segment, FileChannel channel) throws IOException {
+        try (InputStream in = response.getInputStream()) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+
+            while (segment.position <= segment.end) {
+                int read = in.read(buffer, 0, (int) Math.min(buffer.length, segment.end - segment.position + 1));
+
+                if (read < 0) {
+                    throw new IOException("Connection closed early");
+                }
+
+                ByteBuffer data = ByteBuffer.wrap(buffer, 0, read);
+
+                while (data.hasRemaining()) {
+                    segment.position += channel.write(data, segment.position);
+                }
+            }
+        }
+    }
+
+    private static void pause(int attempt) throws InterruptedIOException {
+        try {
+            Thread.sleep(1000L * attempt);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Download interrupted");
+        }
+    }
+
+    private static class Segment {
+        final long start;
+        final long end;
+        volatile long position;
+
+        Segment(long start, long end) {
+            this.start = start;
+            this.end = end;
+            this.position = start;
+        }
+
+        boolean isComplete() {
+            return position == end + 1;
+        }
+    }
+
+    private static class PackageChangedException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        PackageChangedException(String message) {
+            super(message);
+        }
+    }
+}
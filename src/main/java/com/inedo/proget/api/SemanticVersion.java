@@ -0,0 +1,168 @@
+package com.inedo.proget.api;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A parsed <a href="https://semver.org/">semantic version</a>, ordered by semantic version precedence so that 1.10.0
+ * comes after 1.9.0.  Missing minor and patch numbers are treated as zero, build metadata is ignored when comparing.
+ *
+ * @author Andrew Sumner
+ */
+public class SemanticVersion implements Comparable<SemanticVersion> {
+    private static final Pattern VERSION = Pattern.compile("v?(\\d+)(?:\\.(\\d+))?(?:\\.(\\d+))?(?:-([0-9A-Za-z.-]+))?(?:\\+[0-9A-Za-z.-]+)?");
+    private static final String[] RELEASE = new String[0];
+
+    /** The lowest possible version, 0.0.0-0 */
+    static final SemanticVersion MINIMUM = new SemanticVersion(0, 0, 0, new String[] { "0" });
+
+    private final String text;
+    private final long major;
+    private final long minor;
+    private final long patch;
+    private final String[] prerelease;
+
+    SemanticVersion(long major, long minor, long patch, String[] prerelease) {
+        this(null, major, minor, patch, prerelease);
+    }
+
+    private SemanticVersion(String text, long major, long minor, long patch, String[] prerelease) {
+        this.text = text;
+        this.major = major;
+        this.minor = minor;
+        this.patch = patch;
+        this.prerelease = prerelease;
+    }
+
+    /**
+     * Parse a version.
+     *
+     * @param version Version number
+     * @return The version or null if it is not a semantic version
+     */
+    public static SemanticVersion parse(String version) {
+        if (version == null) {
+            return null;
+        }
+
+        Matcher matcher = VERSION.matcher(version.trim());
+
+        if (!matcher.matches()) {
+            return null;
+        }
+
+        try {
+            return new SemanticVersion(version,
+                    Long.parseLong(matcher.group(1)),
+                    matcher.group(2) == null ? 0 : Long.parseLong(matcher.group(2)),
+                    matcher.group(3) == null ? 0 : Long.parseLong(matcher.group(3)),
+                    matcher.group(4) == null ? RELEASE : matcher.group(4).split("\\."));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    public long getMajor() {
+        return major;
+    }
+
+    public long getMinor() {
+        return minor;
+    }
+
+    public long getPatch() {
+        return patch;
+    }
+
+    public boolean isPrerelease() {
+        return prerelease.length > 0;
+    }
+
+    /** The lowest pre-release of this version, every other pre-release of it comes after */
+    SemanticVersion withMinimumPrerelease() {
+        return new SemanticVersion(major, minor, patch, new String[] { "0" });
+    }
+
+    /** True if the versions have the same major, minor and patch numbers */
+    boolean isSameRelease(SemanticVersion other) {
+        return major == other.major && minor == other.minor && patch == other.patch;
+    }
+
+    @Override
+    public int compareTo(SemanticVersion other) {
+        int result = Long.compare(major, other.major);
+
+        if (result == 0) {
+            result = Long.compare(minor, other.minor);
+        }
+
+        if (result == 0) {
+            result = Long.compare(patch, other.patch);
+        }
+
+        if (result != 0) {
+            return result;
+        }
+
+        // A pre-release comes before the release
+        if (prerelease.length == 0 || other.prerelease.length == 0) {
+            return Integer.compare(other.prerelease.length, prerelease.length);
+        }
+
+        for (int i = 0; i < prerelease.length && i < other.prerelease.length; i++) {
+            result = compareIdentifier(prerelease[i], other.prerelease[i]);
+
+            if (result != 0) {
+                return result;
+            }
+        }
+
+        return Integer.compare(prerelease.length, other.prerelease.length);
+    }
+
+    /** Numeric identifiers are compared numerically and come before alphanumeric identifiers */
+    private static int compareIdentifier(String a, String b) {
+        boolean numericA = isNumeric(a);
+        boolean numericB = isNumeric(b);
+
+        if (numericA && numericB) {
+            return a.length() != b.length() ? Integer.compare(a.length(), b.length()) : a.compareTo(b);
+        }
+
+        if (numericA != numericB) {
+            return numericA ? -1 : 1;
+        }
+
+        return a.compareTo(b);
+    }
+
+    private static boolean isNumeric(String identifier) {
+        for (int i = 0; i < identifier.length(); i++) {
+            if (!Character.isDigit(identifier.charAt(i))) {
+                return false;
+            }
+        }
+
+        return !identifier.isEmpty();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof SemanticVersion && compareTo((SemanticVersion) obj) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(major) * 31 * 31 + Long.hashCode(minor) * 31 + Long.hashCode(patch);
+    }
+
+    /** The version as it was given, or as major.minor.patch[-prerelease] if it was built by a range */
+    @Override
+    public String toString() {
+        if (text != null) {
+            return text;
+        }
+
+        return major + "." + minor + "." + patch + (prerelease.length == 0 ? "" : "-" + String.join(".", prerelease));
+    }
+}
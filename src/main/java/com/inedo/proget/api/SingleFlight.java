@@ -0,0 +1,78 @@
+package com.inedo.proget.api;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Coalesces identical concurrent lookups: while a call for a key is in flight, other callers asking for the same key
+ * wait for it and share its result rather than sending their own request to ProGet.  Nothing is kept once the call
+ * completes, caching results is left to the caller.
+ *
+ * @author Andrew Sumner
+ */
+public class SingleFlight<T> {
+    private final ConcurrentHashMap<String, CompletableFuture<T>> calls = new ConcurrentHashMap<>();
+
+    /**
+     * Run the loader, or wait for the call already running for the key.
+     *
+     * @param key Identifies the call, must include everything that affects the result
+     * @param loader Makes the call
+     * @return The result of the call
+     * @throws IOException If the call failed, every caller waiting on it gets the failure
+     */
+    public T call(String key, Loader<T> loader) throws IOException {
+        CompletableFuture<T> call = new CompletableFuture<>();
+        CompletableFuture<T> running = calls.putIfAbsent(key, call);
+
+        if (running != null) {
+            return await(running);
+        }
+
+        try {
+            T result = loader.load();
+
+            call.complete(result);
+            return result;
+        } catch (IOException | RuntimeException | Error e) {
+            call.completeExceptionally(e);
+            throw e;
+        } finally {
+            calls.remove(key, call);
+        }
+    }
+
+    /** The number of calls in flight */
+    public int size() {
+        return calls.size();
+    }
+
+    private static <T> T await(CompletableFuture<T> call) throws IOException {
+        try {
+            return call.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for ProGet");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+
+            // Wrapped so the stack trace shows where this caller was waiting
+            throw new IOException(cause.getMessage(), cause);
+        }
+    }
+
+    public interface Loader<T> {
+        T load() throws IOException;
+    }
+}
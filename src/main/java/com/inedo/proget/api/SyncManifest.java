@@ -0,0 +1,205 @@
+package com.inedo.proget.api;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+
+/**
+ * Records the files extracted into a folder so the next extraction can tell which files are unchanged without
+ * reading them, and which files came from the previous package and can safely be deleted.
+ *
+ * The manifest lives in the workspace so can't be trusted, a name that leads outside the folder is never deleted.
+ *
+ * @author Andrew Sumner
+ */
+class SyncManifest {
+    static final String FILE_NAME = ".proget-manifest";
+    private static final int VERSION = 1;
+    /** Recorded in place of the checksum for a file hard linked from the package cache */
+    static final long LINKED = -1;
+
+    private final File folder;
+    private final File manifest;
+    private final Map<String, Entry> previous = new HashMap<>();
+    private final Map<String, Entry> current = new LinkedHashMap<>();
+
+    SyncManifest(File folder) {
+        this.folder = folder;
+        this.manifest = new File(folder, FILE_NAME);
+
+        load();
+    }
+
+    private void load() {
+        if (!manifest.isFile()) {
+            return;
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(manifest)))) {
+            if (in.readInt() != VERSION) {
+                return;
+            }
+
+            int count = in.readInt();
+
+            for (int i = 0; i < count; i++) {
+                String name = in.readUTF();
+                previous.put(name, new Entry(in.readLong(), in.readLong(), in.readLong()));
+            }
+        } catch (IOException e) {
+            // A damaged manifest just means every file is checked
+            previous.clear();
+        }
+    }
+
+    /**
+     * @return True if the file already holds the entry's content, in which case it is recorded as being part of the
+     *         new package
+     */
+    boolean isUnchanged(String name, File file, ZipEntry entry) throws IOException {
+        if (entry.getSize() < 0 || entry.getCrc() < 0 || !file.isFile() || file.length() != entry.getSize()) {
+            return false;
+        }
+
+        Entry known = previous.get(name);
+        boolean unchanged;
+
+        // Files recorded without a checksum, eg linked from the package cache, have to be read to be compared
+        if (known != null && known.crc >= 0 && known.size == file.length() && known.time == file.lastModified()) {
+            unchanged = known.crc == entry.getCrc();
+        } else {
+            unchanged = CompressedEntry.checksum(file) == entry.getCrc();
+        }
+
+        if (unchanged) {
+            // A linked file that is left in place is still linked
+            record(name, file, known != null && known.crc == LINKED ? LINKED : entry.getCrc());
+        }
+
+        return unchanged;
+    }
+
+    /** Record a file that has been extracted */
+    void record(String name, File file, long crc) throws IOException {
+        if (resolve(folder, name) == null) {
+            throw new IOException("File " + name + " is outside the folder " + folder);
+        }
+
+        current.put(name, new Entry(file.length(), file.lastModified(), crc));
+    }
+
+    /**
+     * Files the previous extraction linked from the package cache, they share their content with the cache so have to
+     * be replaced rather than overwritten.
+     */
+    Set<File> getLinkedFiles() {
+        Set<File> linked = new HashSet<>();
+
+        for (Map.Entry<String, Entry> entry : previous.entrySet()) {
+            File file = entry.getValue().crc == LINKED ? resolve(folder, entry.getKey()) : null;
+
+            if (file != null) {
+                linked.add(file);
+            }
+        }
+
+        return linked;
+    }
+
+    /**
+     * Get the file a name refers to, without following symbolic links.
+     *
+     * @return The file, or null if the name leads outside the folder, eg ../x or an absolute path
+     */
+    static File resolve(File folder, String name) {
+        Path root = folder.toPath().toAbsolutePath().normalize();
+
+        try {
+            Path path = root.resolve(name).normalize();
+
+            return path.startsWith(root) && !path.equals(root) ? path.toFile() : null;
+        } catch (InvalidPathException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Delete the files extracted from the previous package that are not in the new one, along with any folders left
+     * empty.
+     *
+     * @return Number of files deleted
+     */
+    int deleteRemoved() throws IOException {
+        List<String> removed = new ArrayList<>(previous.keySet());
+        removed.removeAll(current.keySet());
+
+        Path root = folder.getCanonicalFile().toPath();
+        int deleted = 0;
+
+        for (String name : removed) {
+            File file = resolve(root.toFile(), name);
+
+            // Whether it leads outside directly or through a symbolic link
+            if (file == null || !file.getCanonicalFile().toPath().startsWith(root)) {
+                continue;
+            }
+
+            if (file.isFile() && file.delete()) {
+                deleted++;
+
+                for (File parent = file.getParentFile(); !parent.toPath().equals(root) && parent.delete(); parent = parent.getParentFile()) {
+                    // File.delete() only removes empty folders
+                }
+            }
+        }
+
+        return deleted;
+    }
+
+    void save() throws IOException {
+        File temp = new File(folder, FILE_NAME + ".tmp");
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(VERSION);
+            out.writeInt(current.size());
+
+            for (Map.Entry<String, Entry> entry : current.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeLong(entry.getValue().size);
+                out.writeLong(entry.getValue().time);
+                out.writeLong(entry.getValue().crc);
+            }
+        }
+
+        Files.move(temp.toPath(), manifest.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static class Entry {
+        final long size;
+        final long time;
+        final long crc;
+
+        Entry(long size, long time, long crc) {
+            this.size = size;
+            this.time = time;
+            this.crc = crc;
+        }
+    }
+}
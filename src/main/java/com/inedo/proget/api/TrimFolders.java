@@ -0,0 +1,124 @@
+package com.inedo.proget.api;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The folders marked for removal from the package path by wrapping them in square brackets in the artifacts
+ * setting, eg the bin folder in <code>[bin]/logs/*.log</code>.
+ *
+ * The folders are held in a tree of path segments so finding the folder to trim from a file only walks as deep as
+ * the deepest marked folder, regardless of how many folders have been marked.  Where more than one marked folder
+ * matches a file the one listed last wins.
+ *
+ * @author Andrew Sumner
+ */
+class TrimFolders {
+    private final Node root = new Node();
+    private final char separator;
+    private boolean empty = true;
+
+    /**
+     * @param artifacts Comma separated list of include patterns
+     * @param separator Separator used by the paths that will be trimmed
+     */
+    TrimFolders(String artifacts, char separator) {
+        this.separator = separator;
+
+        String[] includes = artifacts.split(",");
+
+        for (int order = 0; order < includes.length; order++) {
+            String prefix = includes[order].trim();
+
+            if (!prefix.startsWith("[")) {
+                continue;
+            }
+
+            int index = prefix.indexOf("]");
+            if (index < 0) {
+                continue;
+            }
+
+            add(prefix.substring(1, index).replace('/', separator), order);
+        }
+    }
+
+    private void add(String folder, int order) {
+        Node node = root;
+        int start = 0;
+
+        // As with String.startsWith() a trailing separator is ignored but empty segments are not
+        int end = folder.endsWith(String.valueOf(separator)) ? folder.length() - 1 : folder.length();
+
+        while (start <= end) {
+            int next = folder.indexOf(separator, start);
+            if (next < 0 || next > end) {
+                next = end;
+            }
+
+            node = node.children.computeIfAbsent(folder.substring(start, next), k -> new Node());
+            start = next + 1;
+        }
+
+        node.order = Math.max(node.order, order);
+        empty = false;
+    }
+
+    /**
+     * @return The number of characters to remove from the start of the path, 0 if it is not in a marked folder
+     */
+    int trimLength(String path) {
+        if (empty) {
+            return 0;
+        }
+
+        Node node = root;
+        int start = 0;
+        int order = -1;
+        int length = 0;
+
+        while (!node.children.isEmpty()) {
+            int next = path.indexOf(separator, start);
+
+            // Only a folder can be trimmed, not the file itself
+            if (next < 0) {
+                break;
+            }
+
+            node = node.children.get(path.substring(start, next));
+            if (node == null) {
+                break;
+            }
+
+            start = next + 1;
+
+            if (node.order > order) {
+                order = node.order;
+                length = start;
+            }
+        }
+
+        return length;
+    }
+
+    /**
+     * Convert a path relative to the workspace to its path in the package.
+     *
+     * @param path Path to trim
+     * @param packageSeparator Separator to use in the package
+     */
+    String toPackagePath(String path, char packageSeparator) {
+        String trimmed = path.substring(trimLength(path));
+
+        if (packageSeparator != separator) {
+            return trimmed.replace(separator, packageSeparator);
+        }
+
+        return trimmed;
+    }
+
+    private static class Node {
+        final Map<String, Node> children = new HashMap<>();
+        int order = -1;
+    }
+}
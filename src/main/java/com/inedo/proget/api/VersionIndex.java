@@ -0,0 +1,124 @@
+package com.inedo.proget.api;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The versions of a package, newest first by semantic version precedence, so that a version range can be resolved
+ * without asking ProGet.
+ *
+ * @author Andrew Sumner
+ */
+public class VersionIndex {
+    private final SemanticVersion[] versions;
+    private final List<String> names;
+
+    /**
+     * @param versions Version numbers in any order, versions that aren't semantic versions are listed last and never
+     *                 match a range
+     */
+    public VersionIndex(Collection<String> versions) {
+        List<SemanticVersion> parsed = new ArrayList<>(versions.size());
+        List<String> other = new ArrayList<>();
+
+        for (String version : versions) {
+            SemanticVersion semver = SemanticVersion.parse(version);
+
+            if (semver == null) {
+                other.add(version);
+            } else {
+                parsed.add(semver);
+            }
+        }
+
+        parsed.sort(Collections.reverseOrder());
+
+        List<String> names = new ArrayList<>(versions.size());
+
+        for (SemanticVersion version : parsed) {
+            names.add(version.toString());
+        }
+
+        names.addAll(other);
+
+        this.versions = parsed.toArray(new SemanticVersion[0]);
+        this.names = Collections.unmodifiableList(names);
+    }
+
+    /** Version numbers, newest first */
+    public List<String> getVersions() {
+        return names;
+    }
+
+    public int size() {
+        return names.size();
+    }
+
+    /**
+     * Find the newest version in a range.
+     *
+     * @param range Version range
+     * @return The version number or null if no version is in the range
+     */
+    public String resolve(VersionRange range) {
+        for (int i = firstAtOrBelow(range.getUpperBound()); i < versions.length; i++) {
+            if (range.matches(versions[i])) {
+                return versions[i].toString();
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Find the newest version that is in every one of the ranges.
+     *
+     * @param ranges Version ranges
+     * @return The version number or null if no version is in all of them
+     */
+    public String resolve(List<VersionRange> ranges) {
+        int first = 0;
+
+        for (VersionRange range : ranges) {
+            first = Math.max(first, firstAtOrBelow(range.getUpperBound()));
+        }
+
+        for (int i = first; i < versions.length; i++) {
+            if (matchesAll(ranges, versions[i])) {
+                return versions[i].toString();
+            }
+        }
+
+        return null;
+    }
+
+    private static boolean matchesAll(List<VersionRange> ranges, SemanticVersion version) {
+        for (VersionRange range : ranges) {
+            if (!range.matches(version)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /** Skip the versions newer than the range allows */
+    private int firstAtOrBelow(SemanticVersion bound) {
+        int low = 0;
+        int high = bound == null ? 0 : versions.length;
+
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+
+            if (versions[mid].compareTo(bound) > 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+
+        return low;
+    }
+}
@@ -0,0 +1,401 @@
+package com.inedo.proget.api;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A range of semantic versions.  The following forms are understood, and can be combined:
+ * <ul>
+ * <li>Wildcards: <code>1.4.*</code>, <code>1.x</code> or <code>*</code></li>
+ * <li>Caret, versions that don't change the left-most non-zero number: <code>^2.0</code></li>
+ * <li>Tilde, versions that only change the patch number: <code>~1.2.3</code></li>
+ * <li>Comparisons, separated by spaces to require all of them: <code>&gt;=3.1 &lt;4</code></li>
+ * <li>Hyphen ranges: <code>1.2 - 1.4</code></li>
+ * <li>Alternatives, separated by <code>||</code>: <code>^1.2 || ^2.0</code></li>
+ * <li>Interval notation as used by NuGet and universal package dependencies: <code>[1.0,2.0)</code></li>
+ * </ul>
+ * Pre-release versions only match when a version in the range has a pre-release for the same major, minor and patch
+ * numbers, so <code>^1.2</code> won't pick up 1.3.0-beta.
+ *
+ * @author Andrew Sumner
+ */
+public class VersionRange {
+    private static final Pattern PARTIAL = Pattern.compile("v?(\\d+|[*xX])(?:\\.(\\d+|[*xX]))?(?:\\.(\\d+|[*xX]))?(?:-([0-9A-Za-z.-]+))?(?:\\+[0-9A-Za-z.-]+)?");
+    private static final Pattern COMPARATOR = Pattern.compile("\\s*(>=|<=|>|<|=|\\^|~>|~)?\\s*([^\\s<>=^~]+)\\s*");
+    private static final Pattern RANGE_CHARACTERS = Pattern.compile(".*([*^~<>=|\\[\\]()]|(^|\\.)[xX](\\.|$)|\\s-\\s).*");
+
+    private final String text;
+    private final List<List<Comparator>> alternatives;
+    private final SemanticVersion upperBound;
+
+    private VersionRange(String text, List<List<Comparator>> alternatives) {
+        this.text = text;
+        this.alternatives = alternatives;
+        this.upperBound = upperBound(alternatives);
+    }
+
+    /**
+     * @return True if the version is written as a range rather than an exact version
+     */
+    public static boolean isRange(String version) {
+        return version != null && !ProGetApi.isLatest(version) && RANGE_CHARACTERS.matcher(version.trim()).matches();
+    }
+
+    /**
+     * Parse a range.
+     *
+     * @param range Version range
+     * @return The range
+     * @throws IllegalArgumentException If the range is not understood
+     */
+    public static VersionRange parse(String range) {
+        List<List<Comparator>> alternatives = new ArrayList<>();
+        String trimmed = range == null ? "" : range.trim();
+
+        if (trimmed.startsWith("[") || trimmed.startsWith("(")) {
+            alternatives.add(parseInterval(range, trimmed));
+            return new VersionRange(range, alternatives);
+        }
+
+        for (String alternative : trimmed.split("\\|\\|", -1)) {
+            alternatives.add(parseSet(range, alternative.trim()));
+        }
+
+        return new VersionRange(range, alternatives);
+    }
+
+    /**
+     * @return True if the version is in the range
+     */
+    public boolean matches(SemanticVersion version) {
+        for (List<Comparator> comparators : alternatives) {
+            if (matches(comparators, version)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static boolean matches(List<Comparator> comparators, SemanticVersion version) {
+        boolean prereleaseAllowed = !version.isPrerelease();
+
+        for (Comparator comparator : comparators) {
+            if (!comparator.matches(version)) {
+                return false;
+            }
+
+            if (comparator.explicit && comparator.version.isPrerelease() && comparator.version.isSameRelease(version)) {
+                prereleaseAllowed = true;
+            }
+        }
+
+        return prereleaseAllowed;
+    }
+
+    /**
+     * @return No version after this is in the range, or null if the range has no upper limit
+     */
+    SemanticVersion getUpperBound() {
+        return upperBound;
+    }
+
+    private static SemanticVersion upperBound(List<List<Comparator>> alternatives) {
+        SemanticVersion highest = null;
+
+        for (List<Comparator> comparators : alternatives) {
+            SemanticVersion lowest = null;
+
+            for (Comparator comparator : comparators) {
+                if (comparator.operator.startsWith("<") || comparator.operator.equals("=")) {
+                    if (lowest == null || comparator.version.compareTo(lowest) < 0) {
+                        lowest = comparator.version;
+                    }
+                }
+            }
+
+            if (lowest == null) {
+                return null;
+            }
+
+            if (highest == null || lowest.compareTo(highest) > 0) {
+                highest = lowest;
+            }
+        }
+
+        return highest;
+    }
+
+    @Override
+    public String toString() {
+        return text;
+    }
+
+    private static List<Comparator> parseInterval(String range, String interval) {
+        List<Comparator> comparators = new ArrayList<>();
+        boolean lowerInclusive = interval.startsWith("[");
+        boolean upperInclusive = interval.endsWith("]");
+
+        if (!upperInclusive && !interval.endsWith(")")) {
+            throw invalid(range);
+        }
+
+        String[] bounds = interval.substring(1, interval.length() - 1).split(",", -1);
+
+        if (bounds.length == 1) {
+            // [1.0] is exactly that version
+            if (!lowerInclusive || !upperInclusive) {
+                throw invalid(range);
+            }
+
+            comparators.add(new Comparator("=", version(range, bounds[0].trim()), true));
+            return comparators;
+        }
+
+        if (bounds.length != 2 || (bounds[0].trim().isEmpty() && bounds[1].trim().isEmpty())) {
+            throw invalid(range);
+        }
+
+        if (!bounds[0].trim().isEmpty()) {
+            comparators.add(new Comparator(lowerInclusive ? ">=" : ">", version(range, bounds[0].trim()), true));
+        }
+
+        if (!bounds[1].trim().isEmpty()) {
+            comparators.add(new Comparator(upperInclusive ? "<=" : "<", version(range, bounds[1].trim()), true));
+        }
+
+        return comparators;
+    }
+
+    private static List<Comparator> parseSet(String range, String set) {
+        List<Comparator> comparators = new ArrayList<>();
+
+        if (set.isEmpty()) {
+            throw invalid(range);
+        }
+
+        String[] hyphen = set.split("\\s+-\\s+");
+
+        if (hyphen.length == 2) {
+            Partial from = partial(range, hyphen[0].trim());
+            Partial to = partial(range, hyphen[1].trim());
+
+            comparators.add(new Comparator(">=", from.lowest(), true));
+
+            if (to.isComplete()) {
+                comparators.add(new Comparator("<=", to.lowest(), true));
+            } else {
+                addBelow(comparators, to.parts == 0 ? null : to.next(to.parts));
+            }
+
+            return comparators;
+        }
+
+        if (hyphen.length > 2) {
+            throw invalid(range);
+        }
+
+        Matcher matcher = COMPARATOR.matcher(set);
+        int end = 0;
+
+        while (end < set.length()) {
+            if (!matcher.find(end) || matcher.start() != end) {
+                throw invalid(range);
+            }
+
+            String operator = matcher.group(1) == null ? "" : matcher.group(1);
+            Partial partial = partial(range, matcher.group(2));
+
+            addComparators(comparators, operator, partial);
+            end = matcher.end();
+        }
+
+        return comparators;
+    }
+
+    private static void addComparators(List<Comparator> comparators, String operator, Partial partial) {
+        switch (operator) {
+        case "":
+        case "=":
+            if (partial.isComplete()) {
+                comparators.add(new Comparator("=", partial.lowest(), true));
+            } else if (partial.parts > 0) {
+                comparators.add(new Comparator(">=", partial.lowest(), false));
+                comparators.add(new Comparator("<", partial.next(partial.parts), false));
+            }
+            break;
+
+        case ">=":
+            comparators.add(new Comparator(">=", partial.lowest(), true));
+            break;
+
+        case ">":
+            if (partial.isComplete()) {
+                comparators.add(new Comparator(">", partial.lowest(), true));
+            } else if (partial.parts > 0) {
+                comparators.add(new Comparator(">=", partial.next(partial.parts), false));
+            } else {
+                // Nothing is greater than every version
+                comparators.add(new Comparator("<", SemanticVersion.MINIMUM, false));
+            }
+            break;
+
+        case "<":
+            if (partial.isComplete()) {
+                comparators.add(new Comparator("<", partial.lowest(), true));
+            } else {
+                // Before every version starting with the given numbers, including their pre-releases
+                comparators.add(new Comparator("<", partial.parts == 0 ? SemanticVersion.MINIMUM : partial.lowest().withMinimumPrerelease(), false));
+            }
+            break;
+
+        case "<=":
+            if (partial.isComplete()) {
+                comparators.add(new Comparator("<=", partial.lowest(), true));
+            } else {
+                addBelow(comparators, partial.parts == 0 ? null : partial.next(partial.parts));
+            }
+            break;
+
+        case "^":
+            comparators.add(new Comparator(">=", partial.lowest(), true));
+            addBelow(comparators, partial.nextCaret());
+            break;
+
+        case "~":
+        case "~>":
+            comparators.add(new Comparator(">=", partial.lowest(), true));
+            addBelow(comparators, partial.parts == 0 ? null : partial.next(Math.min(partial.parts, 2)));
+            break;
+
+        default:
+            throw new IllegalArgumentException("Unknown operator " + operator);
+        }
+    }
+
+    /** Add an upper bound calculated from the range, if there is one */
+    private static void addBelow(List<Comparator> comparators, SemanticVersion upper) {
+        if (upper != null) {
+            comparators.add(new Comparator("<", upper, false));
+        }
+    }
+
+    private static SemanticVersion version(String range, String text) {
+        Partial partial = partial(range, text);
+
+        if (partial.parts == 0) {
+            throw invalid(range);
+        }
+
+        return partial.lowest();
+    }
+
+    private static Partial partial(String range, String text) {
+        Matcher matcher = PARTIAL.matcher(text);
+
+        if (!matcher.matches()) {
+            throw invalid(range);
+        }
+
+        long[] numbers = new long[3];
+        int parts = 0;
+
+        try {
+            for (int i = 0; i < 3; i++) {
+                String part = matcher.group(i + 1);
+
+                if (part == null || part.equals("*") || part.equalsIgnoreCase("x")) {
+                    break;
+                }
+
+                numbers[i] = Long.parseLong(part);
+                parts++;
+            }
+        } catch (NumberFormatException e) {
+            throw invalid(range);
+        }
+
+        String[] prerelease = matcher.group(4) == null || parts < 3 ? new String[0] : matcher.group(4).split("\\.");
+
+        return new Partial(numbers, parts, prerelease);
+    }
+
+    private static IllegalArgumentException invalid(String range) {
+        return new IllegalArgumentException("Invalid version range '" + range + "'");
+    }
+
+    /** A version that may be missing its minor or patch number */
+    private static class Partial {
+        final long[] numbers;
+        final int parts;
+        final String[] prerelease;
+
+        Partial(long[] numbers, int parts, String[] prerelease) {
+            this.numbers = numbers;
+            this.parts = parts;
+            this.prerelease = prerelease;
+        }
+
+        boolean isComplete() {
+            return parts == 3;
+        }
+
+        SemanticVersion lowest() {
+            return new SemanticVersion(numbers[0], numbers[1], numbers[2], prerelease);
+        }
+
+        /** The first version after every version matching the given number of parts */
+        SemanticVersion next(int significant) {
+            long[] next = new long[3];
+
+            System.arraycopy(numbers, 0, next, 0, significant);
+            next[significant - 1]++;
+
+            return new SemanticVersion(next[0], next[1], next[2], new String[0]).withMinimumPrerelease();
+        }
+
+        /** The first version that changes the left-most non-zero number */
+        SemanticVersion nextCaret() {
+            for (int i = 0; i < parts; i++) {
+                if (numbers[i] != 0 || i == parts - 1) {
+                    return next(i + 1);
+                }
+            }
+
+            // ^* has no upper bound
+            return null;
+        }
+    }
+
+    private static class Comparator {
+        final String operator;
+        final SemanticVersion version;
+        /** False if the version was calculated from the range rather than written in it */
+        final boolean explicit;
+
+        Comparator(String operator, SemanticVersion version, boolean explicit) {
+            this.operator = operator;
+            this.version = version;
+            this.explicit = explicit;
+        }
+
+        boolean matches(SemanticVersion other) {
+            int result = other.compareTo(version);
+
+            switch (operator) {
+            case "=":
+                return result == 0;
+            case ">=":
+                return result >= 0;
+            case ">":
+                return result > 0;
+            case "<=":
+                return result <= 0;
+            default:
+                return result < 0;
+            }
+        }
+    }
+}
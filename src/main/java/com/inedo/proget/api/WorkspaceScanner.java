@@ -0,0 +1,430 @@
+package com.inedo.proget.api;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.StringTokenizer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.DirectoryScanner;
+import org.apache.tools.ant.types.selectors.SelectorUtils;
+import org.apache.tools.ant.types.selectors.TokenizedPath;
+import org.apache.tools.ant.types.selectors.TokenizedPattern;
+
+/**
+ * Finds the files in a folder matching a set of Ant style include and exclude patterns.
+ *
+ * Gives the same results as the Ant DirectoryScanner created by {@link hudson.Util#createFileSet(File, String, String)}
+ * but the patterns are tokenized once, folders that can't contain a match are not entered, and sub folders are scanned
+ * in parallel.
+ *
+ * @author Andrew Sumner
+ */
+class WorkspaceScanner {
+    private final List<TokenizedPattern> includes;
+    private final List<TokenizedPattern> excludes;
+    private final boolean caseSensitive;
+    /** The paths a case insensitive scan is limited to, null if every folder may be entered */
+    private List<String> roots = null;
+
+    /**
+     * @param includes Comma separated list of include patterns, matches everything if empty
+     * @param excludes Comma separated list of exclude patterns
+     * @param defaultExcludes Whether to add Ant's default excludes (eg **&#47;.git/**)
+     * @param caseSensitive Whether patterns are case sensitive
+     */
+    WorkspaceScanner(String includes, String excludes, boolean defaultExcludes, boolean caseSensitive) {
+        this.includes = tokenize(includes);
+        this.excludes = tokenize(excludes);
+        this.caseSensitive = caseSensitive;
+
+        if (this.includes.isEmpty()) {
+            this.includes.add(new TokenizedPattern(SelectorUtils.DEEP_TREE_MATCH));
+        }
+
+        if (defaultExcludes) {
+            for (String pattern : DirectoryScanner.getDefaultExcludes()) {
+                this.excludes.add(new TokenizedPattern(normalizePattern(pattern)));
+            }
+        }
+    }
+
+    private static List<TokenizedPattern> tokenize(String patterns) {
+        List<TokenizedPattern> tokenized = new ArrayList<>();
+
+        if (patterns == null) {
+            return tokenized;
+        }
+
+        StringTokenizer tokens = new StringTokenizer(patterns, ",");
+
+        while (tokens.hasMoreTokens()) {
+            String pattern = tokens.nextToken().trim();
+
+            if (!pattern.isEmpty()) {
+                tokenized.add(new TokenizedPattern(normalizePattern(pattern)));
+            }
+        }
+
+        return tokenized;
+    }
+
+    /** As per DirectoryScanner: use the platform separator, and a trailing separator means everything below */
+    private static String normalizePattern(String pattern) {
+        String normalized = pattern.replace('/', File.separatorChar).replace('\\', File.separatorChar);
+
+        if (normalized.endsWith(File.separator)) {
+            normalized += SelectorUtils.DEEP_TREE_MATCH;
+        }
+
+        return normalized;
+    }
+
+    /**
+     * Scan the folder, adding the matching files to the list in sorted order.
+     */
+    void scan(File baseFolder, FileList files) {
+        scan(baseFolder, Collections.singletonList(this), Collections.singletonList(files));
+    }
+
+    /**
+     * Scan the folder once for a number of scanners, adding the files matching each scanner to the list at the same
+     * position in sorted order.  A folder is read once however many scanners need it, and is only entered if at least
+     * one of them could match something below it.
+     */
+    static void scan(File baseFolder, List<WorkspaceScanner> scanners, List<? extends FileList> lists) {
+        if (scanners.size() != lists.size()) {
+            throw new IllegalArgumentException("A file list is required for each scanner");
+        }
+
+        if (!baseFolder.isDirectory()) {
+            throw new BuildException("basedir " + baseFolder.getAbsolutePath() + " does not exist or is not a directory.");
+        }
+
+        for (WorkspaceScanner scanner : scanners) {
+            scanner.resolveRoots(baseFolder);
+        }
+
+        boolean[] active = new boolean[scanners.size()];
+        Arrays.fill(active, true);
+
+        ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        ScanFolder root = new ScanFolder(null, scanners, baseFolder.toPath(), TokenizedPath.EMPTY_PATH, "", active);
+
+        try {
+            pool.invoke(root);
+        } finally {
+            pool.shutdown();
+        }
+
+        root.sort();
+
+        for (int i = 0; i < scanners.size(); i++) {
+            root.addTo(i, lists.get(i), lists.get(i).root());
+        }
+    }
+
+    /**
+     * As per DirectoryScanner: unless an include pattern starts with a wildcard, a case insensitive scan only looks in
+     * the folder or file each pattern's leading path resolves to, preferring an exact match when several folders
+     * differ only by case.  A case sensitive scan can only match the exact path anyway.
+     */
+    private void resolveRoots(File baseFolder) {
+        roots = null;
+
+        if (caseSensitive) {
+            return;
+        }
+
+        List<String> resolved = new ArrayList<>();
+
+        for (TokenizedPattern pattern : includes) {
+            String text = pattern.toString();
+            // Ant looks up patterns without wildcards in upper case
+            TokenizedPath root = SelectorUtils.hasWildcards(text) ? pattern.rtrimWildcardTokens() : new TokenizedPath(text.toUpperCase());
+
+            if (root.depth() == 0) {
+                return;
+            }
+
+            File found = root.findFile(baseFolder, false);
+
+            if (found != null && found.exists()) {
+                resolved.add(baseFolder.toPath().relativize(found.toPath()).toString());
+            }
+        }
+
+        roots = resolved;
+    }
+
+    /** True if the folder is on the way to, or inside, one of the roots */
+    private boolean isOnRoot(TokenizedPath folder) {
+        if (roots == null) {
+            return true;
+        }
+
+        String path = folder.toString();
+
+        for (String root : roots) {
+            if (root.equals(path) || root.startsWith(path + File.separatorChar) || path.startsWith(root + File.separatorChar)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /** True if the file is, or is inside, one of the roots */
+    private boolean isUnderRoot(TokenizedPath file) {
+        if (roots == null) {
+            return true;
+        }
+
+        String path = file.toString();
+
+        for (String root : roots) {
+            if (root.equals(path) || path.startsWith(root + File.separatorChar)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private boolean isIncluded(TokenizedPath path) {
+        for (TokenizedPattern pattern : includes) {
+            if (pattern.matchPath(path, caseSensitive)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private boolean isExcluded(TokenizedPath path) {
+        for (TokenizedPattern pattern : excludes) {
+            if (pattern.matchPath(path, caseSensitive)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /** A folder only needs to be entered if an include pattern could match something below it */
+    private boolean couldHoldIncluded(TokenizedPath folder) {
+        for (TokenizedPattern pattern : includes) {
+            if (pattern.matchStartOf(folder, caseSensitive)
+                    && isMorePowerfulThanExcludes(folder)
+                    && (pattern.containsPattern(SelectorUtils.DEEP_TREE_MATCH) || pattern.depth() > folder.depth())) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private boolean isMorePowerfulThanExcludes(TokenizedPath folder) {
+        String everythingBelow = folder.toString() + File.separatorChar + SelectorUtils.DEEP_TREE_MATCH;
+
+        for (TokenizedPattern pattern : excludes) {
+            if (pattern.toString().equals(everythingBelow)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /** True if an exclude pattern excludes everything below the folder */
+    private boolean contentsExcluded(TokenizedPath folder) {
+        for (TokenizedPattern pattern : excludes) {
+            if (pattern.endsWith(SelectorUtils.DEEP_TREE_MATCH) && pattern.withoutLastToken().matchPath(folder, caseSensitive)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static class ScanFolder extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final ScanFolder parent;
+        private final List<WorkspaceScanner> scanners;
+        private final Path folder;
+        private final TokenizedPath relative;
+        private final String name;
+        private final String sortKey;
+        /** The scanners that could match something in this folder */
+        private final boolean[] active;
+        /** The scanners that match a file in, or below, this folder */
+        private final boolean[] hasFiles;
+        private final List<List<String>> files;
+        private final List<ScanFolder> subFolders = new ArrayList<>();
+
+        ScanFolder(ScanFolder parent, List<WorkspaceScanner> scanners, Path folder, TokenizedPath relative, String name, boolean[] active) {
+            this.parent = parent;
+            this.scanners = scanners;
+            this.folder = folder;
+            this.relative = relative;
+            this.name = name;
+            this.sortKey = name + File.separatorChar;
+            this.active = active;
+            this.hasFiles = new boolean[scanners.size()];
+            this.files = new ArrayList<>(scanners.size());
+
+            for (int i = 0; i < scanners.size(); i++) {
+                files.add(active[i] ? new ArrayList<>() : Collections.emptyList());
+            }
+        }
+
+        @Override
+        protected void compute() {
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(folder)) {
+                for (Path child : stream) {
+                    String name = child.getFileName().toString();
+                    TokenizedPath path = new TokenizedPath(relative, name);
+                    BasicFileAttributes attributes = readAttributes(child);
+
+                    if (attributes == null) {
+                        continue;
+                    }
+
+                    if (attributes.isDirectory()) {
+                        boolean[] childActive = new boolean[scanners.size()];
+                        boolean enter = false;
+
+                        for (int i = 0; i < scanners.size(); i++) {
+                            WorkspaceScanner scanner = scanners.get(i);
+
+                            childActive[i] = active[i] && scanner.couldHoldIncluded(path) && !scanner.contentsExcluded(path) && scanner.isOnRoot(path);
+                            enter |= childActive[i];
+                        }
+
+                        if (enter && !isLoop(child, name)) {
+                            subFolders.add(new ScanFolder(this, scanners, child, path, name, childActive));
+                        }
+                    } else {
+                        for (int i = 0; i < scanners.size(); i++) {
+                            WorkspaceScanner scanner = scanners.get(i);
+
+                            if (active[i] && scanner.isIncluded(path) && !scanner.isExcluded(path) && scanner.isUnderRoot(path)) {
+                                files.get(i).add(name);
+                            }
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+
+            invokeAll(subFolders);
+
+            for (int i = 0; i < scanners.size(); i++) {
+                int scanner = i;
+
+                hasFiles[i] = !files.get(i).isEmpty() || subFolders.stream().anyMatch(subFolder -> subFolder.hasFiles[scanner]);
+            }
+        }
+
+        /** Sort the files and sub folders found, a folder sorts as its name followed by a separator. */
+        void sort() {
+            for (List<String> list : files) {
+                Collections.sort(list);
+            }
+
+            subFolders.sort(Comparator.comparing(f -> f.sortKey));
+            subFolders.forEach(ScanFolder::sort);
+        }
+
+        /**
+         * Add the files a scanner found to the list, ordered as if their full paths had been sorted.  Only sub folders
+         * containing files matching that scanner are added.
+         */
+        void addTo(int scanner, FileList list, int listFolder) {
+            List<String> files = this.files.get(scanner);
+            int file = 0;
+            int subFolder = 0;
+
+            while (file < files.size() || subFolder < subFolders.size()) {
+                if (subFolder == subFolders.size() || (file < files.size() && files.get(file).compareTo(subFolders.get(subFolder).sortKey) < 0)) {
+                    list.addFile(listFolder, files.get(file++));
+                } else {
+                    ScanFolder child = subFolders.get(subFolder++);
+
+                    if (child.hasFiles[scanner]) {
+                        child.addTo(scanner, list, list.addFolder(listFolder, child.name));
+                    }
+                }
+            }
+        }
+
+        /** Symbolic links are followed, broken links are ignored */
+        private BasicFileAttributes readAttributes(Path path) throws IOException {
+            try {
+                return Files.readAttributes(path, BasicFileAttributes.class);
+            } catch (IOException e) {
+                if (Files.isSymbolicLink(path)) {
+                    return null;
+                }
+
+                throw e;
+            }
+        }
+
+        /**
+         * As per DirectoryScanner: a symbolic link that leads back to a folder already on the path is followed until
+         * that folder has been entered through the same name more than {@link DirectoryScanner#MAX_LEVELS_OF_SYMLINKS}
+         * times, so links forming a cycle, directly or through other folders, stop rather than being followed forever.
+         */
+        private boolean isLoop(Path child, String name) throws IOException {
+            int depth = 0;
+            int sameName = 0;
+
+            for (ScanFolder entered = this; entered != null; entered = entered.parent) {
+                depth++;
+
+                if (name.equals(entered.getFolderName())) {
+                    sameName++;
+                }
+            }
+
+            if (depth < DirectoryScanner.MAX_LEVELS_OF_SYMLINKS || sameName < DirectoryScanner.MAX_LEVELS_OF_SYMLINKS || !Files.isSymbolicLink(child)) {
+                return false;
+            }
+
+            Path target = child.toRealPath();
+            int visits = 1;
+
+            for (ScanFolder entered = this; entered != null; entered = entered.parent) {
+                if (name.equals(entered.getFolderName()) && entered.folder.toRealPath().equals(target) && ++visits > DirectoryScanner.MAX_LEVELS_OF_SYMLINKS) {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+
+        private String getFolderName() {
+            if (parent != null) {
+                return name;
+            }
+
+            Path fileName = folder.getFileName();
+
+            return fileName == null ? "" : fileName.toString();
+        }
+    }
+}
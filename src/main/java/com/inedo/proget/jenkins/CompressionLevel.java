@@ -0,0 +1,46 @@
+package com.inedo.proget.jenkins;
+
+import java.util.zip.Deflater;
+
+public enum CompressionLevel {
+    DEFAULT("default", "Default", Deflater.DEFAULT_COMPRESSION),
+    FAST("fast", "Fastest", Deflater.BEST_SPEED),
+    MAX("max", "Smallest", Deflater.BEST_COMPRESSION),
+    NONE("none", "No compression", Deflater.NO_COMPRESSION);
+
+    private final String format;
+    private final String display;
+    private final int level;
+
+    private CompressionLevel(String format, String display, int level) {
+        this.format = format;
+        this.display = display;
+        this.level = level;
+    }
+
+    public String getFormat() {
+        return format;
+    }
+
+    public String getDisplay() {
+        return display;
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    public static CompressionLevel fromFormat(String format) {
+        if (format == null || format.isEmpty()) {
+            return DEFAULT;
+        }
+
+        for (CompressionLevel search : CompressionLevel.values()) {
+            if (search.getFormat().equals(format)) {
+                return search;
+            }
+        }
+
+        throw new IllegalArgumentException("Unknown compression level " + format);
+    }
+}
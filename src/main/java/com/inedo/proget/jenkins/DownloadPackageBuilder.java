@@ -2,34 +2,56 @@ package com.inedo.proget.jenkins;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.SortedSet;
-import java.util.TreeSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.jenkinsci.Symbol;
 import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
 import org.kohsuke.stapler.QueryParameter;
 
+import com.inedo.proget.api.DaemonThreadFactory;
+import com.inedo.proget.api.PackageCache;
+import com.inedo.proget.api.PackageCache.CachedPackage;
+import com.inedo.proget.api.PackageDependency;
+import com.inedo.proget.api.PackageExtractor;
+import com.inedo.proget.api.PackageLinker;
 import com.inedo.proget.api.ProGetApi;
 import com.inedo.proget.api.ProGetConfig;
 import com.inedo.proget.api.ProGetPackager;
-import com.inedo.proget.domain.Feed;
-import com.inedo.proget.domain.PackageVersion;
-import com.inedo.proget.domain.ProGetPackage;
+import com.inedo.proget.api.SemanticVersion;
+import com.inedo.proget.api.VersionIndex;
+import com.inedo.proget.api.VersionRange;
+import com.inedo.proget.domain.PackageMetadata;
 import com.inedo.proget.jenkins.utils.JenkinsConsoleLogWriter;
 import com.inedo.proget.jenkins.utils.JenkinsHelper;
 import com.inedo.proget.jenkins.utils.JenkinsLogWriter;
 import com.inedo.proget.jenkins.utils.JenkinsTaskLogWriter;
+import com.inedo.proget.jenkins.utils.ResolvedVersionsAction;
 
 import hudson.AbortException;
 import hudson.Extension;
 import hudson.FilePath;
 import hudson.Launcher;
 import hudson.model.AbstractProject;
+import hudson.model.AutoCompletionCandidates;
+import hudson.model.Computer;
+import hudson.model.Node;
 import hudson.model.Run;
 import hudson.model.TaskListener;
 import hudson.tasks.BuildStepDescriptor;
 import hudson.tasks.Builder;
-import hudson.util.ComboBoxModel;
 import hudson.util.ListBoxModel;
 import jenkins.security.MasterToSlaveCallable;
 import jenkins.tasks.SimpleBuildStep;
@@ -49,6 +71,14 @@ public class DownloadPackageBuilder extends Builder implements SimpleBuildStep {
     private final String version;
     private final String downloadFormat;
     private final String downloadFolder;
+    private int downloadSegments = 1;
+    private int extractThreads = 0;
+    private boolean streamExtract = false;
+    private boolean syncExtract = false;
+    private boolean deleteRemovedFiles = false;
+    private boolean linkFromCache = false;
+    private boolean downloadDependencies = false;
+    private int parallelDownloads = 4;
 
     // Fields in config.jelly must match the parameter names in the "DataBoundConstructor"
     @DataBoundConstructor
@@ -85,6 +115,70 @@ public class DownloadPackageBuilder extends Builder implements SimpleBuildStep {
         return downloadFolder;
     }
 
+    @DataBoundSetter public void setDownloadSegments(int downloadSegments) {
+        this.downloadSegments = downloadSegments;
+    }
+
+    public int getDownloadSegments() {
+        return downloadSegments;
+    }
+
+    @DataBoundSetter public void setExtractThreads(int extractThreads) {
+        this.extractThreads = extractThreads;
+    }
+
+    public int getExtractThreads() {
+        return extractThreads;
+    }
+
+    @DataBoundSetter public void setStreamExtract(boolean streamExtract) {
+        this.streamExtract = streamExtract;
+    }
+
+    public boolean isStreamExtract() {
+        return streamExtract;
+    }
+
+    @DataBoundSetter public void setSyncExtract(boolean syncExtract) {
+        this.syncExtract = syncExtract;
+    }
+
+    public boolean isSyncExtract() {
+        return syncExtract;
+    }
+
+    @DataBoundSetter public void setDeleteRemovedFiles(boolean deleteRemovedFiles) {
+        this.deleteRemovedFiles = deleteRemovedFiles;
+    }
+
+    public boolean isDeleteRemovedFiles() {
+        return deleteRemovedFiles;
+    }
+
+    @DataBoundSetter public void setLinkFromCache(boolean linkFromCache) {
+        this.linkFromCache = linkFromCache;
+    }
+
+    public boolean isLinkFromCache() {
+        return linkFromCache;
+    }
+
+    @DataBoundSetter public void setDownloadDependencies(boolean downloadDependencies) {
+        this.downloadDependencies = downloadDependencies;
+    }
+
+    public boolean isDownloadDependencies() {
+        return downloadDependencies;
+    }
+
+    @DataBoundSetter public void setParallelDownloads(int parallelDownloads) {
+        this.parallelDownloads = parallelDownloads;
+    }
+
+    public int getParallelDownloads() {
+        return parallelDownloads;
+    }
+
     @Override
     public void perform(Run<?, ?> run, FilePath workspace, Launcher launcher, TaskListener listener) throws InterruptedException, IOException {
         JenkinsHelper helper = new JenkinsHelper(run, listener);
@@ -93,28 +187,147 @@ public class DownloadPackageBuilder extends Builder implements SimpleBuildStep {
             throw new AbortException("Please configure ProGet Plugin global settings");
         }
 
+        if (downloadDependencies) {
+            DownloadFormat format = DownloadFormat.fromFormat(downloadFormat);
+
+            if (format != DownloadFormat.PACKAGE && format != DownloadFormat.EXTRACT_CONTENT) {
+                throw new AbortException("Dependencies can only be downloaded with the package or when unpacking its content");
+            }
+
+            if (deleteRemovedFiles) {
+                throw new AbortException("Dependencies are unpacked to the same folder as the package so can't be downloaded when deleting removed files");
+            }
+        }
+
         ProGetConfig config = GlobalConfig.getProGetConfig();
         
+        String feed = helper.expandVariable(feedName);
+        String group = helper.expandVariable(groupName);
+        String name = helper.expandVariable(packageName);
+        String packageVersion = helper.expandVariable(version);
+
+        packageVersion = resolveVersion(run, helper, config, feed, group, name, packageVersion);
+
         String downloadTo = helper.expandVariable(downloadFolder);
         helper.getLogWriter().info("Download package to " + new File(downloadTo).getAbsolutePath());
 
-        String downloaded = launcher.getChannel().call(new GetPackage(
+        List<String> downloaded = launcher.getChannel().call(new GetPackage(
                 listener,
                 config,
-                helper.expandVariable(feedName),
-                helper.expandVariable(groupName),
-                helper.expandVariable(packageName),
-                helper.expandVariable(version),
+                feed,
+                group,
+                name,
+                packageVersion,
                 downloadFormat,
-                downloadTo));
+                downloadTo,
+                downloadSegments,
+                extractThreads,
+                streamExtract,
+                syncExtract,
+                deleteRemovedFiles,
+                linkFromCache,
+                getCacheFolder(workspace),
+                downloadDependencies,
+                parallelDownloads));
 
         if (!downloaded.isEmpty()) {
-            helper.injectEnvrionmentVariable("PROGET_FILE", downloaded);
+            // When downloading dependencies the package comes first in the list of files
+            helper.injectEnvrionmentVariable("PROGET_FILE", downloaded.get(0));
+
+            if (downloadDependencies) {
+                helper.injectEnvrionmentVariable("PROGET_FILES", joinFileNames(launcher, downloaded));
+            }
         }
     }
 
+    /**
+     * Join file names with the path separator of the agent they were downloaded to, as a file name may contain a
+     * comma.
+     */
+    static String joinFileNames(Launcher launcher, List<String> names) {
+        return String.join(launcher.isUnix() ? ":" : ";", names);
+    }
+
+    /**
+     * Resolve "latest" or a version range to a version number, any other version is returned as is.
+     */
+    static String resolveVersion(Run<?, ?> run, JenkinsHelper helper, ProGetConfig config, String feed, String group, String name, String version) throws IOException {
+        if (ProGetApi.isLatest(version)) {
+            return resolveLatestVersion(run, helper, config, feed, group, name, version);
+        }
+
+        if (VersionRange.isRange(version)) {
+            return resolveVersionRange(run, helper, feed, group, name, version);
+        }
+
+        return version;
+    }
+
+    /**
+     * Resolve "latest" to a version number once per build so every step downloads the same version, and the download
+     * can be served from the agent package cache.
+     */
+    static String resolveLatestVersion(Run<?, ?> run, JenkinsHelper helper, ProGetConfig config, String feed, String group, String name, String latest) {
+        String found;
+
+        try {
+            found = ResolvedVersionsAction.of(run).resolve(feed, group, name, null,
+                    () -> new ProGetApi(config, helper.getLogWriter()).resolveLatestVersion(feed, group, name));
+        } catch (IOException e) {
+            helper.getLogWriter().info("Unable to look up the latest version of " + name + ", downloading the latest version instead: " + e.getMessage());
+            return latest;
+        }
+
+        if (found == null) {
+            return latest;
+        }
+
+        helper.getLogWriter().info("Latest version of " + name + " is " + found);
+
+        return found;
+    }
+
+    /**
+     * Resolve a version range to the newest matching version, using the cached versions of the package so a build
+     * doesn't need to ask ProGet.  Each range is resolved once per build so every step downloads the same version.
+     */
+    static String resolveVersionRange(Run<?, ?> run, JenkinsHelper helper, String feed, String group, String name, String range) throws IOException {
+        VersionRange versionRange;
+
+        try {
+            versionRange = VersionRange.parse(range);
+        } catch (IllegalArgumentException e) {
+            throw new AbortException(e.getMessage());
+        }
+
+        String found = ResolvedVersionsAction.of(run).resolve(feed, group, name, range,
+                () -> FeedMetadataCache.get().resolveVersion(feed, group, name, versionRange));
+
+        if (found == null) {
+            throw new AbortException("No version of " + name + " matches " + range);
+        }
+
+        helper.getLogWriter().info("Version " + range + " of " + name + " resolved to " + found);
+
+        return found;
+    }
+
+    /**
+     * The agent package cache folder, in the root folder of the node the workspace is on.
+     */
+    static String getCacheFolder(FilePath workspace) {
+        Computer computer = workspace.toComputer();
+        Node node = computer == null ? null : computer.getNode();
+
+        if (node == null || node.getRootPath() == null) {
+            return null;
+        }
+
+        return node.getRootPath().child("caches").child("proget-packages").getRemote();
+    }
+
     // Define what should be run on the slave for this build
-    private static class GetPackage extends MasterToSlaveCallable<String, IOException> {
+    static class GetPackage extends MasterToSlaveCallable<List<String>, IOException> {
         private final TaskListener listener;
         private ProGetConfig config;
         private final String feedName;
@@ -123,9 +336,24 @@ public class DownloadPackageBuilder extends Builder implements SimpleBuildStep {
         private final String version;
         private final String downloadFormat;
         private final String downloadFolder;
+        private final int downloadSegments;
+        private final int extractThreads;
+        private final boolean streamExtract;
+        private final boolean syncExtract;
+        private final boolean deleteRemovedFiles;
+        private final boolean linkFromCache;
+        private final String cacheFolder;
+        private final boolean downloadDependencies;
+        private final int parallelDownloads;
+        /** The package's upack.json, only read when downloading dependencies */
+        private transient PackageMetadata metadata = null;
+        private transient String downloadedFile = null;
+        /** Signalled once the packages listed before this one have been unpacked */
+        private transient CountDownLatch unpackAfter = null;
 
         public GetPackage(final TaskListener listener, ProGetConfig config, String feedName, String groupName, String packageName, String version, String downloadFormat,
-                String downloadFolder) {
+                String downloadFolder, int downloadSegments, int extractThreads, boolean streamExtract, boolean syncExtract, boolean deleteRemovedFiles,
+                boolean linkFromCache, String cacheFolder, boolean downloadDependencies, int parallelDownloads) {
             this.listener = listener;
             this.config = config;
             this.feedName = feedName;
@@ -134,18 +362,328 @@ public class DownloadPackageBuilder extends Builder implements SimpleBuildStep {
             this.version = version;
             this.downloadFormat = downloadFormat;
             this.downloadFolder = downloadFolder;
+            this.downloadSegments = downloadSegments;
+            this.extractThreads = extractThreads;
+            this.streamExtract = streamExtract;
+            this.syncExtract = syncExtract;
+            this.deleteRemovedFiles = deleteRemovedFiles;
+            this.linkFromCache = linkFromCache;
+            this.cacheFolder = cacheFolder;
+            this.downloadDependencies = downloadDependencies;
+            this.parallelDownloads = parallelDownloads;
         }
 
-        public String call() throws IOException {
+        String getDownloadFolder() {
+            return downloadFolder;
+        }
+
+        /** Wait for another package to be unpacked before this one is written to the download folder */
+        void setUnpackAfter(CountDownLatch unpackAfter) {
+            this.unpackAfter = unpackAfter;
+        }
+
+        /** Identifies the package in the build log */
+        public String getDescription() {
+            String name = groupName == null || groupName.isEmpty() ? packageName : groupName + "/" + packageName;
+
+            return name + " " + (ProGetApi.isLatest(version) ? "latest" : version);
+        }
+
+        public List<String> call() throws IOException {
             JenkinsLogWriter logWriter = new JenkinsTaskLogWriter(listener);
-            
             ProGetApi proget = new ProGetApi(config, logWriter);
+
+            if (downloadDependencies) {
+                return downloadWithDependencies(proget, logWriter);
+            }
+
+            List<String> downloaded = new ArrayList<>();
+            String file = download(proget, logWriter);
+
+            if (!file.isEmpty()) {
+                downloaded.add(file);
+            }
+
+            return downloaded;
+        }
+
+        /**
+         * Download the package and, transitively, the packages it depends on, returning the files downloaded.  Each
+         * package is downloaded once however many packages depend on it.  The dependencies are downloaded in waves: the
+         * dependencies found in the upack.json files of one wave are downloaded in parallel as the next wave, and
+         * unpacked one after another in the order they were listed so overlapping files always end up the same.
+         * <p>
+         * Where several packages depend on the same package the newest version that satisfies all of them is used, and
+         * the download fails if there is no such version or a package depends on a version other than the one already
+         * downloaded.
+         */
+        private List<String> downloadWithDependencies(ProGetApi proget, JenkinsLogWriter logWriter) throws IOException {
+            Map<String, String> versions = new HashMap<>();
+            List<String> downloaded = new ArrayList<>();
+            Map<String, List<Requirement>> wave = new LinkedHashMap<>();
+            PackageDependency root = new PackageDependency(groupName, packageName, version);
+
+            wave.put(root.getKey(), Collections.singletonList(new Requirement(root, null)));
+
+            ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, parallelDownloads), new DaemonThreadFactory("ProGet download"));
+
+            try {
+                boolean first = true;
+
+                while (!wave.isEmpty()) {
+                    List<List<Requirement>> requirements = new ArrayList<>(wave.values());
+                    List<Future<GetPackage>> results = new ArrayList<>();
+                    Map<String, List<Requirement>> next = new LinkedHashMap<>();
+                    CountDownLatch previous = null;
+                    int failed = 0;
+
+                    if (!first) {
+                        logWriter.info(String.format("Download %d dependencies", requirements.size()));
+                    }
+
+                    for (List<Requirement> required : requirements) {
+                        CountDownLatch after = previous;
+                        CountDownLatch unpacked = new CountDownLatch(1);
+                        boolean isRoot = first;
+
+                        results.add(pool.submit(() -> {
+                            try {
+                                GetPackage pkg = isRoot ? this : forDependency(proget, required);
+                                pkg.setUnpackAfter(after);
+                                pkg.downloadedFile = pkg.download(proget, logWriter);
+
+                                return pkg;
+                            } finally {
+                                // The next package unpacks once this one and those before it are done
+                                awaitQuietly(after);
+                                unpacked.countDown();
+                            }
+                        }));
+
+                        previous = unpacked;
+                    }
+
+                    first = false;
+
+                    List<GetPackage> packages = new ArrayList<>();
+
+                    for (int i = 0; i < requirements.size(); i++) {
+                        GetPackage pkg;
+
+                        try {
+                            pkg = results.get(i).get();
+                        } catch (ExecutionException e) {
+                            failed++;
+                            logWriter.error("Failed to download " + requirements.get(i).get(0).dependency + ": " + e.getCause().getMessage());
+                            continue;
+                        }
+
+                        packages.add(pkg);
+                        versions.put(pkg.getKey(), pkg.version);
+
+                        if (!pkg.downloadedFile.isEmpty()) {
+                            downloaded.add(pkg.downloadedFile);
+                        }
+                    }
+
+                    if (failed > 0) {
+                        throw new IOException(String.format("%d of %d packages failed to download", failed, requirements.size()));
+                    }
+
+                    for (GetPackage pkg : packages) {
+                        for (String value : pkg.metadata.dependencies) {
+                            Requirement requirement;
+
+                            try {
+                                requirement = new Requirement(PackageDependency.parse(value), pkg.getDescription());
+                            } catch (IllegalArgumentException e) {
+                                throw new IOException(pkg.getDescription() + ": " + e.getMessage(), e);
+                            }
+
+                            String key = requirement.dependency.getKey();
+                            String have = versions.get(key);
+
+                            if (have == null) {
+                                next.computeIfAbsent(key, k -> new ArrayList<>()).add(requirement);
+                            } else if (!satisfies(have, requirement.dependency.getVersion())) {
+                                throw new IOException(String.format("%s depends on %s but version %s has already been downloaded",
+                                        requirement.requiredBy, requirement.dependency, have));
+                            }
+                        }
+                    }
+
+                    wave = next;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Download interrupted", e);
+            } finally {
+                pool.shutdownNow();
+            }
+
+            logWriter.info(String.format("Downloaded %s and %d dependencies", getDescription(), versions.size() - 1));
+
+            return downloaded;
+        }
+
+        /**
+         * Download a dependency from the same feed with the same settings, dependencies are unpacked alongside the
+         * package so are never synchronised.  The version used is the newest that satisfies every package depending on
+         * it.
+         */
+        private GetPackage forDependency(ProGetApi proget, List<Requirement> requirements) throws IOException {
+            PackageDependency dependency = requirements.get(0).dependency;
+            List<VersionRange> ranges = new ArrayList<>();
+            String dependencyVersion = null;
+
+            for (Requirement requirement : requirements) {
+                String required = requirement.dependency.getVersion();
+
+                if (ProGetApi.isLatest(required)) {
+                    continue;
+                }
+
+                if (VersionRange.isRange(required)) {
+                    try {
+                        ranges.add(VersionRange.parse(required));
+                    } catch (IllegalArgumentException e) {
+                        throw new IOException(requirement.requiredBy + ": " + e.getMessage(), e);
+                    }
+                } else if (dependencyVersion == null) {
+                    dependencyVersion = required;
+                } else if (!dependencyVersion.equalsIgnoreCase(required)) {
+                    throw conflict(requirements);
+                }
+            }
+
+            if (dependencyVersion != null) {
+                for (Requirement requirement : requirements) {
+                    if (!satisfies(dependencyVersion, requirement.dependency.getVersion())) {
+                        throw conflict(requirements);
+                    }
+                }
+            } else if (ranges.isEmpty()) {
+                dependencyVersion = proget.resolveLatestVersion(feedName, dependency.getGroup(), dependency.getName());
+
+                if (dependencyVersion == null) {
+                    throw new IOException("Package not found in feed " + feedName);
+                }
+            } else {
+                String[] versions = proget.getVersionNames(proget.getFeed(feedName), dependency.getGroup(), dependency.getName(), 0);
+
+                dependencyVersion = new VersionIndex(Arrays.asList(versions)).resolve(ranges);
+
+                if (dependencyVersion == null) {
+                    throw requirements.size() == 1 ? new IOException("No version matches " + dependency.getVersion()) : conflict(requirements);
+                }
+            }
+
+            return new GetPackage(listener, config, feedName, dependency.getGroup(), dependency.getName(), dependencyVersion, downloadFormat, downloadFolder,
+                    downloadSegments, extractThreads, false, false, false, linkFromCache, cacheFolder, true, parallelDownloads);
+        }
+
+        /**
+         * Whether a downloaded version satisfies the version a package depends on, a dependency without a version
+         * accepts any version.
+         */
+        private static boolean satisfies(String have, String required) throws IOException {
+            if (ProGetApi.isLatest(required) || ProGetApi.isLatest(have)) {
+                return true;
+            }
+
+            if (VersionRange.isRange(required)) {
+                SemanticVersion version = SemanticVersion.parse(have);
+
+                try {
+                    return version != null && VersionRange.parse(required).matches(version);
+                } catch (IllegalArgumentException e) {
+                    throw new IOException(e.getMessage(), e);
+                }
+            }
+
+            return have.equalsIgnoreCase(required);
+        }
+
+        private static IOException conflict(List<Requirement> requirements) {
+            StringBuilder message = new StringBuilder("No version of " + requirements.get(0).dependency.getName() + " satisfies every package depending on it:");
+
+            for (Requirement requirement : requirements) {
+                message.append(" ").append(requirement.requiredBy).append(" depends on ").append(requirement.dependency.getVersion()).append(";");
+            }
+
+            message.setLength(message.length() - 1);
+
+            return new IOException(message.toString());
+        }
+
+        static void awaitQuietly(CountDownLatch latch) {
+            if (latch == null) {
+                return;
+            }
+
+            try {
+                latch.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        /** Wait for the packages listed before this one to be unpacked before writing to the download folder */
+        private void awaitTurn() throws IOException {
+            if (unpackAfter == null) {
+                return;
+            }
+
+            try {
+                unpackAfter.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Download interrupted", e);
+            }
+        }
+
+        private String getKey() {
+            return new PackageDependency(groupName, packageName, version).getKey();
+        }
+
+        /** A dependency and the package that depends on it */
+        private static class Requirement {
+            private final PackageDependency dependency;
+            private final String requiredBy;
+
+            Requirement(PackageDependency dependency, String requiredBy) {
+                this.dependency = dependency;
+                this.requiredBy = requiredBy;
+            }
+        }
+
+        private String download(ProGetApi proget, JenkinsLogWriter logWriter) throws IOException {
             DownloadFormat format = DownloadFormat.fromFormat(downloadFormat);
-            File downloaded = proget.downloadPackage(feedName, groupName, packageName, version, downloadFolder, format);
+            PackageExtractor extractor = new PackageExtractor(extractThreads);
+            extractor.setSync(syncExtract);
+            extractor.setDeleteRemovedFiles(deleteRemovedFiles);
+
+            if (cacheFolder != null && config.packageCacheSize > 0 && PackageCache.isCacheable(version)) {
+                return getCachedPackage(proget, logWriter, format, extractor);
+            }
+
+            // The upack.json file has to be read from the package before it is unpacked
+            if (format == DownloadFormat.EXTRACT_CONTENT && streamExtract && !downloadDependencies) {
+                logWriter.info("Unpack " + packageName + " while downloading");
+                proget.downloadPackageContent(feedName, groupName, packageName, version, downloadFolder, extractor);
+                logSync(logWriter, extractor);
+
+                return "";
+            }
+
+            File downloaded = proget.downloadPackage(feedName, groupName, packageName, version, downloadFolder, format, downloadSegments);
+            readMetadata(downloaded);
                     
             if (format == DownloadFormat.EXTRACT_CONTENT) {
+                awaitTurn();
                 logWriter.info("Unpack " + downloaded.getName());
-                ProGetPackager.unpackContent(downloaded);
+                extractor.extract(downloaded);
+                logSync(logWriter, extractor);
                 downloaded.delete();
             } else {
                 return downloaded.getName();
@@ -154,6 +692,80 @@ public class DownloadPackageBuilder extends Builder implements SimpleBuildStep {
             return "";
         }
 
+        /**
+         * Serve the package from the agent's package cache, downloading it into the cache first if it isn't there.
+         */
+        private String getCachedPackage(ProGetApi proget, JenkinsLogWriter logWriter, DownloadFormat format, PackageExtractor extractor) throws IOException {
+            PackageCache cache = new PackageCache(new File(cacheFolder), config.packageCacheSize * 1024 * 1024);
+            // Unpacking is done from the package itself
+            String cacheFormat = format == DownloadFormat.EXTRACT_CONTENT ? DownloadFormat.PACKAGE.getFormat() : format.getFormat();
+            CachedPackage cached = cache.get(feedName, groupName, packageName, version, cacheFormat);
+
+            if (cached != null) {
+                logWriter.info("Using " + cached.getFileName() + " from the agent package cache");
+            } else {
+                File temp = cache.createTempFolder();
+
+                try {
+                    DownloadFormat downloadAs = format == DownloadFormat.EXTRACT_CONTENT ? DownloadFormat.PACKAGE : format;
+                    File downloaded = proget.downloadPackage(feedName, groupName, packageName, version, temp.getPath(), downloadAs, downloadSegments);
+
+                    cached = cache.put(feedName, groupName, packageName, version, cacheFormat, downloaded);
+                } finally {
+                    File[] remaining = temp.listFiles();
+
+                    if (remaining != null) {
+                        for (File file : remaining) {
+                            file.delete();
+                        }
+                    }
+
+                    temp.delete();
+                }
+            }
+
+            // The cache keeps the package until it has been released
+            try {
+                readMetadata(cached.getContent());
+                awaitTurn();
+
+                if (format == DownloadFormat.EXTRACT_CONTENT && linkFromCache) {
+                    PackageLinker linker = new PackageLinker();
+                    linker.setDeleteRemovedFiles(deleteRemovedFiles);
+                    linker.link(cache.getExtracted(cached, extractThreads), new File(downloadFolder));
+
+                    logWriter.info(String.format("Linked %d files from the agent package cache, copied %d files, %d files were already linked, deleted %d files no longer in the package",
+                            linker.getLinkedFiles(), linker.getCopiedFiles(), linker.getSkippedFiles(), linker.getDeletedFiles()));
+
+                    return "";
+                }
+
+                if (format == DownloadFormat.EXTRACT_CONTENT) {
+                    logWriter.info("Unpack " + cached.getFileName());
+                    extractor.extract(cached.getContent(), new File(downloadFolder));
+                    logSync(logWriter, extractor);
+
+                    return "";
+                }
+
+                return cached.copyTo(new File(downloadFolder)).getName();
+            } finally {
+                cached.close();
+            }
+        }
+
+        private void readMetadata(File pkg) throws IOException {
+            if (downloadDependencies) {
+                metadata = ProGetPackager.readMetadata(pkg);
+            }
+        }
+
+        private void logSync(JenkinsLogWriter logWriter, PackageExtractor extractor) {
+            if (syncExtract) {
+                logWriter.info(String.format("Skipped %d unchanged files, deleted %d files no longer in the package", extractor.getSkippedFiles(), extractor.getDeletedFiles()));
+            }
+        }
+
         private static final long serialVersionUID = 1L;
     }
 
@@ -161,10 +773,10 @@ public class DownloadPackageBuilder extends Builder implements SimpleBuildStep {
     @Extension
     // This indicates to Jenkins that this is an implementation of an extension point.
     public static final class DescriptorImpl extends BuildStepDescriptor<Builder> {
-        private ProGetApi proget = null;
-        private String connectionError = "";
-        private String connectionWarning = "";
-        private Boolean isProGetAvailable = null;
+        // Shared by every request for the configuration page
+        private volatile String connectionError = "";
+        private volatile String connectionWarning = "";
+        private volatile Boolean isProGetAvailable = null;
 
         public DescriptorImpl() {
             super(DownloadPackageBuilder.class);
@@ -209,35 +821,44 @@ public class DownloadPackageBuilder extends Builder implements SimpleBuildStep {
          * Check if can connect to ProGet - if not prevent any more calls
          */
         public boolean getIsProGetAvailable() {
-            if (isProGetAvailable != null) {
+            Boolean available = isProGetAvailable;
+
+            if (available != null) {
+                return available;
+            }
+
+            synchronized (this) {
+                if (isProGetAvailable == null) {
+                    isProGetAvailable = checkConnection();
+                }
+
                 return isProGetAvailable;
             }
+        }
 
+        private boolean checkConnection() {
             // if (!GlobalConfig.isRequiredFieldsConfigured(false)) {
             // connectionError = "Please configure ProGet Plugin global settings";
             // isProGetAvailable = false;
             // return false;
             // }
 
-            proget = new ProGetApi(new JenkinsConsoleLogWriter());
+            ProGetApi proget = new ProGetApi(new JenkinsConsoleLogWriter());
 
             try {
                 proget.canConnect();
             } catch (Exception ex) {
                 connectionError = "Unable to connect to Proget, please check the global settings: " + ex.getClass().getName() + " - " + ex.getMessage();
-                isProGetAvailable = false;
                 return false;
             }   
 
             if (!GlobalConfig.isProGetApiKeyFieldConfigured()) {
                 connectionWarning = "The ApiKey has not been configured in global settings, some features have been disabled.";
-                isProGetAvailable = false;
-            } else {
-                connectionError = "";
-                isProGetAvailable = true;
+                return false;
             }
 
-            return isProGetAvailable;
+            connectionError = "";
+            return true;
         }
 
         public ListBoxModel doFillFeedNameItems() throws IOException {
@@ -245,96 +866,54 @@ public class DownloadPackageBuilder extends Builder implements SimpleBuildStep {
                 return null;
             }
 
-            SortedSet<String> set = new TreeSet<>();
             ListBoxModel items = new ListBoxModel();
-            Feed[] feeds = proget.getFeeds();
-
-            for (Feed feed : feeds) {
-                set.add(feed.Feed_Name);
-            }
 
             items.add("");
-            for (String value : set) {
+            for (String value : FeedMetadataCache.get().getFeedNames()) {
                 items.add(value);
             }
             
             return items;
         }
 
-        public ComboBoxModel doFillGroupNameItems(@QueryParameter String feedName) throws IOException {
-            if (!getIsProGetAvailable()) {
-                return null;
-            }
-
-            SortedSet<String> set = new TreeSet<>();
-            ComboBoxModel items = new ComboBoxModel();
+        public AutoCompletionCandidates doAutoCompleteGroupName(@QueryParameter String value, @QueryParameter String feedName) throws IOException {
+            AutoCompletionCandidates candidates = new AutoCompletionCandidates();
 
-            if (feedName != null && !feedName.isEmpty()) {
-                Feed feed = proget.getFeed(feedName);
-                ProGetPackage[] packages = proget.getPackages(feed.Feed_Id);
-
-                for (ProGetPackage pkg : packages) {
-                    set.add(pkg.Group_Name);
+            if (getIsProGetAvailable() && feedName != null && !feedName.isEmpty()) {
+                for (String group : FeedMetadataCache.get().findGroupNames(feedName, value)) {
+                    candidates.add(group);
                 }
             }
 
-            items.add("");
-            for (String value : set) {
-                items.add(value);
-            }
-
-            return items;
+            return candidates;
         }
 
-        public ComboBoxModel doFillPackageNameItems(@QueryParameter String feedName, @QueryParameter String groupName) throws IOException {
-            if (!getIsProGetAvailable()) {
-                return null;
-            }
+        public AutoCompletionCandidates doAutoCompletePackageName(@QueryParameter String value, @QueryParameter String feedName, @QueryParameter String groupName) throws IOException {
+            AutoCompletionCandidates candidates = new AutoCompletionCandidates();
 
-            SortedSet<String> set = new TreeSet<>();
-            ComboBoxModel items = new ComboBoxModel();
-
-            if (feedName != null && !feedName.isEmpty()) {
-                Feed feed = proget.getFeed(feedName);
-                ProGetPackage[] packages = proget.getPackages(feed.Feed_Id, groupName);
-
-                for (ProGetPackage pkg : packages) {
-                    set.add(pkg.Package_Name);
+            if (getIsProGetAvailable() && feedName != null && !feedName.isEmpty()) {
+                for (String name : FeedMetadataCache.get().findPackageNames(feedName, groupName, value)) {
+                    candidates.add(name);
                 }
             }
 
-            items.add("");
-            for (String value : set) {
-                items.add(value);
-            }
-
-            return items;
+            return candidates;
         }
 
-        public ComboBoxModel doFillVersionItems(@QueryParameter String feedName, @QueryParameter String groupName, @QueryParameter String packageName) throws IOException {
-            if (!getIsProGetAvailable()) {
-                return null;
-            }
-
-            SortedSet<String> set = new TreeSet<>();
-            ComboBoxModel items = new ComboBoxModel();
-
-            if (feedName != null && !feedName.isEmpty()) {
-                Feed feed = proget.getFeed(feedName);
-                PackageVersion[] versions = proget.getPackageVersions(feed.Feed_Id, groupName, packageName);
+        public AutoCompletionCandidates doAutoCompleteVersion(@QueryParameter String value, @QueryParameter String feedName, @QueryParameter String groupName, @QueryParameter String packageName) throws IOException {
+            AutoCompletionCandidates candidates = new AutoCompletionCandidates();
 
-                for (PackageVersion version : versions) {
-                    set.add(version.Version_Text);
-                }
+            if ("latest".startsWith(value == null ? "" : value.toLowerCase(Locale.ROOT))) {
+                candidates.add("Latest");
             }
 
-            items.add("");
-            items.add("Latest");
-            for (String value : set) {
-                items.add(value);
+            if (getIsProGetAvailable() && feedName != null && !feedName.isEmpty() && packageName != null && !packageName.isEmpty()) {
+                for (String version : FeedMetadataCache.get().findVersions(feedName, groupName, packageName, value)) {
+                    candidates.add(version);
+                }
             }
 
-            return items;
+            return candidates;
         }
 
         public ListBoxModel doFillDownloadFormatItems() throws IOException {
@@ -0,0 +1,240 @@
+package com.inedo.proget.jenkins;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.jenkinsci.Symbol;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+
+import com.inedo.proget.api.DaemonThreadFactory;
+import com.inedo.proget.api.ProGetConfig;
+import com.inedo.proget.jenkins.DownloadPackageBuilder.GetPackage;
+import com.inedo.proget.jenkins.utils.JenkinsHelper;
+import com.inedo.proget.jenkins.utils.JenkinsLogWriter;
+import com.inedo.proget.jenkins.utils.JenkinsTaskLogWriter;
+
+import hudson.AbortException;
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.model.AbstractProject;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.tasks.BuildStepDescriptor;
+import hudson.tasks.Builder;
+import jenkins.security.MasterToSlaveCallable;
+import jenkins.tasks.SimpleBuildStep;
+
+/**
+ * Downloads a number of universal packages from ProGet in one step, the packages are downloaded concurrently by the
+ * agent.
+ *
+ * @author Andrew Sumner
+ */
+public class DownloadPackagesBuilder extends Builder implements SimpleBuildStep {
+    private final List<PackageDownload> packages;
+    private int parallelDownloads = 4;
+    private int extractThreads = 0;
+
+    // Fields in config.jelly must match the parameter names in the "DataBoundConstructor"
+    @DataBoundConstructor
+    public DownloadPackagesBuilder(List<PackageDownload> packages) {
+        this.packages = packages == null ? Collections.emptyList() : new ArrayList<>(packages);
+    }
+
+    public List<PackageDownload> getPackages() {
+        return Collections.unmodifiableList(packages);
+    }
+
+    @DataBoundSetter public void setParallelDownloads(int parallelDownloads) {
+        this.parallelDownloads = parallelDownloads;
+    }
+
+    public int getParallelDownloads() {
+        return parallelDownloads;
+    }
+
+    @DataBoundSetter public void setExtractThreads(int extractThreads) {
+        this.extractThreads = extractThreads;
+    }
+
+    public int getExtractThreads() {
+        return extractThreads;
+    }
+
+    @Override
+    public void perform(Run<?, ?> run, FilePath workspace, Launcher launcher, TaskListener listener) throws InterruptedException, IOException {
+        JenkinsHelper helper = new JenkinsHelper(run, listener);
+
+        if (!GlobalConfig.isRequiredFieldsConfigured()) {
+            throw new AbortException("Please configure ProGet Plugin global settings");
+        }
+
+        ProGetConfig config = GlobalConfig.getProGetConfig();
+        String cacheFolder = DownloadPackageBuilder.getCacheFolder(workspace);
+        List<GetPackage> downloads = new ArrayList<>();
+        List<Future<GetPackage>> resolved = new ArrayList<>();
+
+        // Versions are resolved concurrently, rather than one ProGet lookup after another
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(parallelDownloads, packages.size())), new DaemonThreadFactory("ProGet resolve"));
+
+        try {
+            for (PackageDownload pkg : packages) {
+                String feed = helper.expandVariable(pkg.getFeedName());
+                String group = helper.expandVariable(pkg.getGroupName());
+                String name = helper.expandVariable(pkg.getPackageName());
+                String version = helper.expandVariable(pkg.getVersion());
+                String folder = helper.expandVariable(pkg.getDownloadFolder());
+
+                resolved.add(pool.submit(() -> new GetPackage(listener, config, feed, group, name,
+                        DownloadPackageBuilder.resolveVersion(run, helper, config, feed, group, name, version),
+                        pkg.getDownloadFormat(), folder, 1, extractThreads, false, false, false, false, cacheFolder, false, 1)));
+            }
+
+            for (Future<GetPackage> download : resolved) {
+                try {
+                    downloads.add(download.get());
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof IOException) {
+                        throw (IOException) e.getCause();
+                    }
+
+                    throw new IOException(e.getCause());
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        Downloaded downloaded = launcher.getChannel().call(new GetPackages(listener, downloads, parallelDownloads));
+
+        // Packages that did download are still listed when others failed
+        if (!downloaded.files.isEmpty()) {
+            helper.injectEnvrionmentVariable("PROGET_FILES", DownloadPackageBuilder.joinFileNames(launcher, downloaded.files));
+        }
+
+        if (downloaded.failed > 0) {
+            throw new AbortException(String.format("%d of %d packages failed to download", downloaded.failed, downloads.size()));
+        }
+    }
+
+    /** The files downloaded and the number of packages that failed */
+    private static class Downloaded implements Serializable {
+        private final List<String> files;
+        private final int failed;
+
+        Downloaded(List<String> files, int failed) {
+            this.files = files;
+            this.failed = failed;
+        }
+
+        private static final long serialVersionUID = 1L;
+    }
+
+    // Define what should be run on the slave for this build
+    private static class GetPackages extends MasterToSlaveCallable<Downloaded, IOException> {
+        private final TaskListener listener;
+        private final List<GetPackage> downloads;
+        private final int parallelDownloads;
+
+        public GetPackages(TaskListener listener, List<GetPackage> downloads, int parallelDownloads) {
+            this.listener = listener;
+            this.downloads = downloads;
+            this.parallelDownloads = parallelDownloads;
+        }
+
+        /**
+         * Download the packages concurrently.  Packages downloaded to the same folder are unpacked one after another in
+         * the order they are listed, so a file in more than one of them always comes from the same package.
+         */
+        public Downloaded call() throws IOException {
+            JenkinsLogWriter logWriter = new JenkinsTaskLogWriter(listener);
+            List<String> downloaded = new ArrayList<>();
+            List<Future<List<String>>> results = new ArrayList<>();
+            Map<Path, CountDownLatch> lastUnpacked = new HashMap<>();
+            int failed = 0;
+
+            if (downloads.isEmpty()) {
+                return new Downloaded(downloaded, failed);
+            }
+
+            ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(parallelDownloads, downloads.size())), new DaemonThreadFactory("ProGet download"));
+
+            try {
+                for (GetPackage download : downloads) {
+                    Path folder = new File(download.getDownloadFolder()).getAbsoluteFile().toPath().normalize();
+                    CountDownLatch after = lastUnpacked.get(folder);
+                    CountDownLatch unpacked = new CountDownLatch(1);
+
+                    lastUnpacked.put(folder, unpacked);
+                    download.setUnpackAfter(after);
+
+                    results.add(pool.submit(() -> {
+                        try {
+                            long start = System.nanoTime();
+                            List<String> files = download.call();
+
+                            logWriter.info(String.format("Downloaded %s in %.1f seconds", download.getDescription(), (System.nanoTime() - start) / 1e9));
+
+                            return files;
+                        } finally {
+                            GetPackage.awaitQuietly(after);
+                            unpacked.countDown();
+                        }
+                    }));
+                }
+
+                for (int i = 0; i < downloads.size(); i++) {
+                    try {
+                        downloaded.addAll(results.get(i).get());
+                    } catch (ExecutionException e) {
+                        failed++;
+                        logWriter.error("Failed to download " + downloads.get(i).getDescription() + ": " + e.getCause().getMessage());
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Download interrupted", e);
+            } finally {
+                pool.shutdownNow();
+            }
+
+            return new Downloaded(downloaded, failed);
+        }
+
+        private static final long serialVersionUID = 1L;
+    }
+
+    @Symbol("downloadProgetPackages")
+    @Extension
+    // This indicates to Jenkins that this is an implementation of an extension point.
+    public static final class DescriptorImpl extends BuildStepDescriptor<Builder> {
+        public DescriptorImpl() {
+            super(DownloadPackagesBuilder.class);
+        }
+
+        @SuppressWarnings("rawtypes")
+        public boolean isApplicable(Class<? extends AbstractProject> jobType) {
+            // Indicates that this builder can be used with all kinds of project types
+            return true;
+        }
+
+        @Override
+        public String getDisplayName() {
+            return "ProGet Package Batch Download";
+        }
+    }
+}
@@ -0,0 +1,290 @@
+package com.inedo.proget.jenkins;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.inedo.proget.api.ProGetApi;
+import com.inedo.proget.api.ProGetConfig;
+import com.inedo.proget.api.SingleFlight;
+import com.inedo.proget.api.VersionIndex;
+import com.inedo.proget.api.VersionRange;
+import com.inedo.proget.domain.Feed;
+import com.inedo.proget.jenkins.utils.JenkinsConsoleLogWriter;
+
+import jenkins.util.Timer;
+
+/**
+ * Caches the feeds, groups, packages and versions offered by the job configuration pages so that filling in a list
+ * doesn't fetch the whole feed from ProGet each time.  The cache is shared by every step on the controller.
+ *
+ * Each list is fetched, when it is first asked for, with a request that returns only what the list needs.  Once an
+ * entry is older than the global "Metadata Cache" setting it is still returned but refreshed in the background, so
+ * only the first request for an entry waits on ProGet.  Memory is bounded by the total number of names held, the least
+ * recently used entries are dropped first.  Requests for an entry that is already being loaded wait for that load
+ * rather than fetching it again.
+ *
+ * Groups, packages and versions are held in a {@link PrefixIndex} so that suggestions can be offered as the user types.
+ * Versions are also held in a {@link VersionIndex} so that version ranges can be resolved without asking ProGet.
+ *
+ * @author Andrew Sumner
+ */
+class FeedMetadataCache {
+    private static final Logger LOGGER = Logger.getLogger(FeedMetadataCache.class.getName());
+
+    /** Maximum number of names held across all entries, can be overridden with a system property */
+    static final int MAX_NAMES = Integer.getInteger(FeedMetadataCache.class.getName() + ".maxNames", 500_000);
+
+    /** Maximum number of suggestions offered as the user types, can be overridden with a system property */
+    static final int MAX_SUGGESTIONS = Integer.getInteger(FeedMetadataCache.class.getName() + ".maxSuggestions", 20);
+
+    private static final FeedMetadataCache INSTANCE = new FeedMetadataCache(MAX_NAMES);
+
+    private final int maxNames;
+    private final SingleFlight<Entry> loads = new SingleFlight<>();
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private int names = 0;
+
+    FeedMetadataCache(int maxNames) {
+        this.maxNames = maxNames;
+    }
+
+    static FeedMetadataCache get() {
+        return INSTANCE;
+    }
+
+    /** Sorted names of the active feeds */
+    List<String> getFeedNames() throws IOException {
+        return list(getFeeds(GlobalConfig.getProGetConfig()).names);
+    }
+
+    /** Sorted names of the groups in a feed */
+    List<String> getGroupNames(String feedName) throws IOException {
+        return getGroups(GlobalConfig.getProGetConfig(), feedName).getNames();
+    }
+
+    /** Sorted names of the packages in a group, or in the whole feed if no group is given */
+    List<String> getPackageNames(String feedName, String groupName) throws IOException {
+        return getPackages(GlobalConfig.getProGetConfig(), feedName, groupName).getNames();
+    }
+
+    /** Versions of a package, newest first */
+    List<String> getVersions(String feedName, String groupName, String packageName) throws IOException {
+        return getVersions(GlobalConfig.getProGetConfig(), feedName, groupName, packageName).index.getVersions();
+    }
+
+    /**
+     * Find the newest version of a package in a range.  If no cached version is in the range the versions are fetched
+     * again in case a matching version has been published since.
+     *
+     * @return The version number or null if no version is in the range
+     */
+    String resolveVersion(String feedName, String groupName, String packageName, VersionRange range) throws IOException {
+        ProGetConfig config = GlobalConfig.getProGetConfig();
+        String version = getVersions(config, feedName, groupName, packageName).index.resolve(range);
+
+        if (version == null && config.metadataCacheSeconds > 0) {
+            String key = key(config, "versions", feedName, groupName, packageName);
+            Entry entry = loads.call(key, () -> loadVersions(config, feedName, groupName, packageName));
+
+            put(key, entry);
+            version = ((Versions) entry.value).index.resolve(range);
+        }
+
+        return version;
+    }
+
+    /** Groups in a feed starting with the given text, in alphabetical order */
+    List<String> findGroupNames(String feedName, String prefix) throws IOException {
+        return getGroups(GlobalConfig.getProGetConfig(), feedName).find(prefix, MAX_SUGGESTIONS);
+    }
+
+    /** Packages in a group, or in the whole feed if no group is given, starting with the given text in alphabetical order */
+    List<String> findPackageNames(String feedName, String groupName, String prefix) throws IOException {
+        return getPackages(GlobalConfig.getProGetConfig(), feedName, groupName).find(prefix, MAX_SUGGESTIONS);
+    }
+
+    /** Versions of a package starting with the given text, newest first */
+    List<String> findVersions(String feedName, String groupName, String packageName, String prefix) throws IOException {
+        return getVersions(GlobalConfig.getProGetConfig(), feedName, groupName, packageName).names.find(prefix, MAX_SUGGESTIONS);
+    }
+
+    synchronized void clear() {
+        entries.clear();
+        names = 0;
+    }
+
+    private FeedList getFeeds(ProGetConfig config) throws IOException {
+        return get(config, key(config, "feeds"), () -> {
+            Map<String, Feed> feeds = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+
+            for (Feed feed : newApi(config).getFeeds()) {
+                feeds.put(feed.Feed_Name, feed);
+            }
+
+            return new Entry(new FeedList(feeds.keySet().toArray(new String[0]), feeds), feeds.size());
+        });
+    }
+
+    private PrefixIndex getGroups(ProGetConfig config, String feedName) throws IOException {
+        return get(config, key(config, "groups", feedName), () -> {
+            String[] groups = newApi(config).getGroupNames(getFeed(config, feedName).Feed_Id);
+
+            return new Entry(new PrefixIndex(groups, false), groups.length);
+        });
+    }
+
+    private PrefixIndex getPackages(ProGetConfig config, String feedName, String groupName) throws IOException {
+        return get(config, key(config, "packages", feedName, groupName), () -> {
+            String[] names = newApi(config).getPackageNames(getFeed(config, feedName).Feed_Id, groupName);
+
+            return new Entry(new PrefixIndex(names, false), names.length);
+        });
+    }
+
+    private Versions getVersions(ProGetConfig config, String feedName, String groupName, String packageName) throws IOException {
+        return get(config, key(config, "versions", feedName, groupName, packageName), () -> loadVersions(config, feedName, groupName, packageName));
+    }
+
+    private Entry loadVersions(ProGetConfig config, String feedName, String groupName, String packageName) throws IOException {
+        VersionIndex index = new VersionIndex(Arrays.asList(newApi(config).getVersionNames(getFeed(config, feedName), groupName, packageName, 0)));
+
+        return new Entry(new Versions(index), index.size());
+    }
+
+    private Feed getFeed(ProGetConfig config, String feedName) throws IOException {
+        Feed feed = getFeeds(config).feeds.get(feedName);
+
+        // The feed may have been added since the list of feeds was cached
+        return feed != null ? feed : newApi(config).getFeed(feedName);
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T get(ProGetConfig config, String key, Loader loader) throws IOException {
+        long ttl = config.metadataCacheSeconds * 1000L;
+
+        if (ttl <= 0) {
+            return (T) loads.call(key, loader::load).value;
+        }
+
+        Entry entry;
+
+        synchronized (this) {
+            entry = entries.get(key);
+
+            if (entry != null && entry.isStale(ttl) && !entry.refreshing) {
+                entry.refreshing = true;
+                Timer.get().submit(() -> refresh(key, loader));
+            }
+        }
+
+        if (entry == null) {
+            entry = loads.call(key, loader::load);
+            put(key, entry);
+        }
+
+        return (T) entry.value;
+    }
+
+    private void refresh(String key, Loader loader) {
+        try {
+            put(key, loads.call(key, loader::load));
+        } catch (IOException | RuntimeException e) {
+            LOGGER.log(Level.FINE, "Unable to refresh cached ProGet metadata", e);
+
+            synchronized (this) {
+                // Keep serving the old entry, the next request will try again
+                Entry entry = entries.get(key);
+
+                if (entry != null) {
+                    entry.refreshing = false;
+                }
+            }
+        }
+    }
+
+    private synchronized void put(String key, Entry entry) {
+        Entry previous = entries.put(key, entry);
+
+        if (previous != null) {
+            names -= previous.weight;
+        }
+
+        names += entry.weight;
+
+        Iterator<Entry> eldest = entries.values().iterator();
+
+        while (names > maxNames && eldest.hasNext()) {
+            Entry evict = eldest.next();
+
+            // An entry too large to fit on its own is still returned, it just isn't kept
+            names -= evict.weight;
+            eldest.remove();
+        }
+    }
+
+    private static String key(ProGetConfig config, String... parts) {
+        StringBuilder key = new StringBuilder(config.url).append("\n").append(config.apiKey);
+
+        for (String part : parts) {
+            key.append("\n").append(part == null ? "" : part);
+        }
+
+        return key.toString();
+    }
+
+    private static List<String> list(String[] values) {
+        return Collections.unmodifiableList(Arrays.asList(values));
+    }
+
+    private static ProGetApi newApi(ProGetConfig config) {
+        return new ProGetApi(config, new JenkinsConsoleLogWriter());
+    }
+
+    private interface Loader {
+        Entry load() throws IOException;
+    }
+
+    private static class Entry {
+        final Object value;
+        final int weight;
+        final long loaded = System.currentTimeMillis();
+        boolean refreshing = false;
+
+        Entry(Object value, int weight) {
+            this.value = value;
+            this.weight = Math.max(1, weight);
+        }
+
+        boolean isStale(long ttl) {
+            return System.currentTimeMillis() - loaded >= ttl;
+        }
+    }
+
+    private static class Versions {
+        final VersionIndex index;
+        final PrefixIndex names;
+
+        Versions(VersionIndex index) {
+            this.index = index;
+            this.names = new PrefixIndex(index.getVersions().toArray(new String[0]), true);
+        }
+    }
+
+    private static class FeedList {
+        final String[] names;
+        final Map<String, Feed> feeds;
+
+        FeedList(String[] names, Map<String, Feed> feeds) {
+            this.names = names;
+            this.feeds = feeds;
+        }
+    }
+}
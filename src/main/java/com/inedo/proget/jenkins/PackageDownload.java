@@ -0,0 +1,79 @@
+package com.inedo.proget.jenkins;
+
+import org.kohsuke.stapler.DataBoundConstructor;
+
+import hudson.Extension;
+import hudson.model.AbstractDescribableImpl;
+import hudson.model.Descriptor;
+import hudson.util.ListBoxModel;
+
+/**
+ * A package to be downloaded by the {@link DownloadPackagesBuilder}.
+ *
+ * @author Andrew Sumner
+ */
+public class PackageDownload extends AbstractDescribableImpl<PackageDownload> {
+    private final String feedName;
+    private final String groupName;
+    private final String packageName;
+    private final String version;
+    private final String downloadFormat;
+    private final String downloadFolder;
+
+    // Fields in config.jelly must match the parameter names in the "DataBoundConstructor"
+    @DataBoundConstructor
+    public PackageDownload(String feedName, String groupName, String packageName, String version, String downloadFormat, String downloadFolder) {
+        this.feedName = feedName;
+        this.groupName = groupName;
+        this.packageName = packageName;
+        this.version = version;
+        this.downloadFormat = downloadFormat;
+        this.downloadFolder = downloadFolder;
+    }
+
+    public String getFeedName() {
+        return feedName;
+    }
+
+    public String getGroupName() {
+        return groupName;
+    }
+
+    public String getPackageName() {
+        return packageName;
+    }
+
+    public String getVersion() {
+        return version;
+    }
+
+    public String getDownloadFormat() {
+        return downloadFormat;
+    }
+
+    public String getDownloadFolder() {
+        return downloadFolder;
+    }
+
+    @Extension
+    public static final class DescriptorImpl extends Descriptor<PackageDownload> {
+        public String defaultFolder() {
+            return "${WORKSPACE}";
+        }
+
+        @Override
+        public String getDisplayName() {
+            return "Package";
+        }
+
+        public ListBoxModel doFillDownloadFormatItems() {
+            ListBoxModel items = new ListBoxModel();
+
+            for (DownloadFormat format : DownloadFormat.values()) {
+                items.add(format.getDisplay(), format.getFormat());
+            }
+
+            return items;
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package com.inedo.proget.jenkins;
+
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+
+import com.inedo.proget.domain.PackageMetadata;
+import com.inedo.proget.jenkins.utils.JenkinsHelper;
+
+import hudson.Extension;
+import hudson.model.AbstractDescribableImpl;
+import hudson.model.Descriptor;
+
+/**
+ * A package to be built and uploaded by the {@link UploadPackagesBuilder}.
+ *
+ * @author Andrew Sumner
+ */
+public class PackageUpload extends AbstractDescribableImpl<PackageUpload> {
+    private final String feedName;
+    private final String groupName;
+    private final String packageName;
+    private final String version;
+    private final String artifacts;
+    private String excludes = "";
+    private boolean defaultExcludes = true;
+    private boolean caseSensitive = true;
+    private String title = "";
+    private String description = "";
+    private String icon = "";
+    private String metadata = "";
+    private String dependencies = "";
+
+    // Fields in config.jelly must match the parameter names in the "DataBoundConstructor"
+    @DataBoundConstructor
+    public PackageUpload(String feedName, String groupName, String packageName, String version, String artifacts) {
+        this.feedName = feedName;
+        this.groupName = groupName;
+        this.packageName = packageName;
+        this.version = version;
+        this.artifacts = artifacts;
+    }
+
+    @DataBoundSetter public void setExcludes(String excludes) {
+        this.excludes = excludes;
+    }
+
+    @DataBoundSetter public void setDefaultExcludes(boolean defaultExcludes) {
+        this.defaultExcludes = defaultExcludes;
+    }
+
+    @DataBoundSetter public void setCaseSensitive(boolean caseSensitive) {
+        this.caseSensitive = caseSensitive;
+    }
+
+    @DataBoundSetter public void setTitle(String title) {
+        this.title = title;
+    }
+
+    @DataBoundSetter public void setDescription(String description) {
+        this.description = description;
+    }
+
+    @DataBoundSetter public void setIcon(String icon) {
+        this.icon = icon;
+    }
+
+    @DataBoundSetter public void setMetadata(String metadata) {
+        this.metadata = metadata;
+    }
+
+    @DataBoundSetter public void setDependencies(String dependencies) {
+        this.dependencies = dependencies;
+    }
+
+    public String getFeedName() {
+        return feedName;
+    }
+
+    public String getGroupName() {
+        return groupName;
+    }
+
+    public String getPackageName() {
+        return packageName;
+    }
+
+    public String getVersion() {
+        return version;
+    }
+
+    public String getArtifacts() {
+        return artifacts;
+    }
+
+    public String getExcludes() {
+        return excludes;
+    }
+
+    public boolean isDefaultExcludes() {
+        return defaultExcludes;
+    }
+
+    public boolean isCaseSensitive() {
+        return caseSensitive;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    public String getIcon() {
+        return icon;
+    }
+
+    public String getMetadata() {
+        return metadata;
+    }
+
+    public String getDependencies() {
+        return dependencies;
+    }
+
+    public PackageMetadata buildMetadata(JenkinsHelper helper) {
+        return UploadPackageBuilder.buildMetadata(helper, groupName, packageName, version, title, description, icon, metadata, dependencies);
+    }
+
+    @Extension
+    public static final class DescriptorImpl extends Descriptor<PackageUpload> {
+        @Override
+        public String getDisplayName() {
+            return "Package";
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.inedo.proget.jenkins;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * A case insensitive index of names for suggesting values as the user types.  The names are held in a sorted array so
+ * that the names starting with a prefix can be found with a binary search, without looking at the rest of the list.
+ *
+ * @author Andrew Sumner
+ */
+class PrefixIndex {
+    private final String[] names;
+    private final String[] keys;
+    private final int[] positions;
+    private final boolean keepOrder;
+
+    /**
+     * @param names The names to index
+     * @param keepOrder If true matches are returned in the order the names were given, otherwise in alphabetical order
+     */
+    PrefixIndex(String[] names, boolean keepOrder) {
+        Integer[] order = new Integer[names.length];
+        String[] lower = new String[names.length];
+
+        for (int i = 0; i < names.length; i++) {
+            order[i] = i;
+            lower[i] = names[i].toLowerCase(Locale.ROOT);
+        }
+
+        Arrays.sort(order, (a, b) -> lower[a].compareTo(lower[b]));
+
+        this.names = names;
+        this.keys = new String[names.length];
+        this.positions = new int[names.length];
+        this.keepOrder = keepOrder;
+
+        for (int i = 0; i < order.length; i++) {
+            keys[i] = lower[order[i]];
+            positions[i] = order[i];
+        }
+    }
+
+    /** All the names in the order they were given */
+    List<String> getNames() {
+        return Collections.unmodifiableList(Arrays.asList(names));
+    }
+
+    int size() {
+        return names.length;
+    }
+
+    /**
+     * Find the names starting with the given text, ignoring case.
+     *
+     * @param prefix Text the names must start with, null or empty matches every name
+     * @param limit Maximum number of names to return
+     * @return The first matching names
+     */
+    List<String> find(String prefix, int limit) {
+        if (limit <= 0) {
+            return Collections.emptyList();
+        }
+
+        String key = prefix == null ? "" : prefix.toLowerCase(Locale.ROOT);
+        int start = firstAtOrAfter(key);
+        int end = start;
+
+        if (!keepOrder) {
+            List<String> matches = new ArrayList<>(Math.min(limit, keys.length - start));
+
+            while (end < keys.length && matches.size() < limit && keys[end].startsWith(key)) {
+                matches.add(names[positions[end++]]);
+            }
+
+            return matches;
+        }
+
+        while (end < keys.length && keys[end].startsWith(key)) {
+            end++;
+        }
+
+        int[] matched = Arrays.copyOfRange(positions, start, end);
+        Arrays.sort(matched);
+
+        List<String> matches = new ArrayList<>(Math.min(limit, matched.length));
+
+        for (int i = 0; i < matched.length && i < limit; i++) {
+            matches.add(names[matched[i]]);
+        }
+
+        return matches;
+    }
+
+    private int firstAtOrAfter(String key) {
+        int low = 0;
+        int high = keys.length;
+
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+
+            if (keys[mid].compareTo(key) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+
+        return low;
+    }
+}
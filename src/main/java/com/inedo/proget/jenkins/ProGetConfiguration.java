@@ -42,6 +42,10 @@ public class ProGetConfiguration extends GlobalConfiguration {
         private Secret password;
         private boolean logApiRequests;
         private boolean trustAllCertificates;
+        private int compressionThreads;
+        private long packageCacheSize;
+        private int latestVersionCacheSeconds = 60;
+        private int metadataCacheSeconds = 300;
         
         public DescriptorImpl() {
             super(ProGetConfiguration.class);
@@ -89,6 +93,22 @@ public class ProGetConfiguration extends GlobalConfiguration {
         public void setTrustAllCertificates(boolean value) {
             trustAllCertificates = value;
         }
+
+        public void setCompressionThreads(int value) {
+            compressionThreads = value;
+        }
+
+        public void setPackageCacheSize(long value) {
+            packageCacheSize = value;
+        }
+
+        public void setLatestVersionCacheSeconds(int value) {
+            latestVersionCacheSeconds = value;
+        }
+
+        public void setMetadataCacheSeconds(int value) {
+            metadataCacheSeconds = value;
+        }
         
         /**
          * Field getters
@@ -116,6 +136,22 @@ public class ProGetConfiguration extends GlobalConfiguration {
         public boolean getTrustAllCertificates() {
             return trustAllCertificates;
         }
+
+        public int getCompressionThreads() {
+            return compressionThreads;
+        }
+
+        public long getPackageCacheSize() {
+            return packageCacheSize;
+        }
+
+        public int getLatestVersionCacheSeconds() {
+            return latestVersionCacheSeconds;
+        }
+
+        public int getMetadataCacheSeconds() {
+            return metadataCacheSeconds;
+        }
         
         public boolean isRequiredFieldsConfigured() {
             if (url == null || url.trim().isEmpty()) {
@@ -205,6 +241,10 @@ public class ProGetConfiguration extends GlobalConfiguration {
             config.apiKey = apiKey;
             config.logApiRequests = logApiRequests;
             config.trustAllCertificates = trustAllCertificates;
+            config.compressionThreads = compressionThreads;
+            config.packageCacheSize = packageCacheSize;
+            config.latestVersionCacheSeconds = latestVersionCacheSeconds;
+            config.metadataCacheSeconds = metadataCacheSeconds;
 
             return config;
         }
@@ -12,6 +12,11 @@ public class PutDetails implements Serializable {
     public final String exclude;
     public final boolean defaultExcludes;
     public final boolean caseSensitive;
+    public final boolean streamUpload;
+    public final int compressionThreads;
+    public final String compressionLevel;
+    public final boolean storeCompressedFiles;
+    public final boolean reuseCompressedEntries;
 
     public PutDetails (UploadPackageBuilder settings, JenkinsHelper helper) {
         this.feedName = settings.getFeedName();
@@ -19,5 +24,10 @@ public class PutDetails implements Serializable {
         this.exclude = helper.expandVariable(settings.getExcludes());
         this.defaultExcludes = settings.isDefaultExcludes();
         this.caseSensitive = settings.isCaseSensitive();
+        this.streamUpload = settings.isStreamUpload();
+        this.compressionThreads = settings.getCompressionThreads();
+        this.compressionLevel = settings.getCompressionLevel();
+        this.storeCompressedFiles = settings.isStoreCompressedFiles();
+        this.reuseCompressedEntries = settings.isReuseCompressedEntries();
     }
 }
\ No newline at end of file
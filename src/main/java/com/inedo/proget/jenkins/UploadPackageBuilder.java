@@ -4,8 +4,6 @@ import java.io.File;
 import java.io.IOException;
 import java.util.List;
 import java.util.Scanner;
-import java.util.SortedSet;
-import java.util.TreeSet;
 
 import javax.servlet.ServletException;
 
@@ -15,13 +13,12 @@ import org.kohsuke.stapler.DataBoundConstructor;
 import org.kohsuke.stapler.DataBoundSetter;
 import org.kohsuke.stapler.QueryParameter;
 
+import com.inedo.proget.api.CompressionPolicy;
 import com.inedo.proget.api.ProGetApi;
 import com.inedo.proget.api.ProGetConfig;
 import com.inedo.proget.api.ProGetPackager;
 import com.inedo.proget.api.ProGetPackager.ZipItem;
-import com.inedo.proget.domain.Feed;
 import com.inedo.proget.domain.PackageMetadata;
-import com.inedo.proget.domain.ProGetPackage;
 import com.inedo.proget.jenkins.utils.JenkinsConsoleLogWriter;
 import com.inedo.proget.jenkins.utils.JenkinsHelper;
 import com.inedo.proget.jenkins.utils.JenkinsLogWriter;
@@ -32,11 +29,12 @@ import hudson.Extension;
 import hudson.FilePath;
 import hudson.Launcher;
 import hudson.model.AbstractProject;
+import hudson.model.AutoCompletionCandidates;
 import hudson.model.Run;
 import hudson.model.TaskListener;
+import hudson.slaves.WorkspaceList;
 import hudson.tasks.BuildStepDescriptor;
 import hudson.tasks.Builder;
-import hudson.util.ComboBoxModel;
 import hudson.util.FormValidation;
 import hudson.util.ListBoxModel;
 import jenkins.security.MasterToSlaveCallable;
@@ -66,6 +64,11 @@ public class UploadPackageBuilder extends Builder implements SimpleBuildStep {
     private String icon = "";
     private String metadata = "";
     private String dependencies = "";
+    private boolean streamUpload = false;
+    private int compressionThreads = 0;
+    private String compressionLevel = CompressionLevel.DEFAULT.getFormat();
+    private boolean storeCompressedFiles = false;
+    private boolean reuseCompressedEntries = false;
 
     // Fields in config.jelly must match the parameter names in the "DataBoundConstructor"
     @DataBoundConstructor
@@ -111,6 +114,26 @@ public class UploadPackageBuilder extends Builder implements SimpleBuildStep {
         this.dependencies = dependencies;
     }
 
+    @DataBoundSetter public void setStreamUpload(boolean streamUpload) {
+        this.streamUpload = streamUpload;
+    }
+
+    @DataBoundSetter public void setCompressionThreads(int compressionThreads) {
+        this.compressionThreads = compressionThreads;
+    }
+
+    @DataBoundSetter public void setCompressionLevel(String compressionLevel) {
+        this.compressionLevel = compressionLevel;
+    }
+
+    @DataBoundSetter public void setStoreCompressedFiles(boolean storeCompressedFiles) {
+        this.storeCompressedFiles = storeCompressedFiles;
+    }
+
+    @DataBoundSetter public void setReuseCompressedEntries(boolean reuseCompressedEntries) {
+        this.reuseCompressedEntries = reuseCompressedEntries;
+    }
+
     public String getFeedName() {
         return feedName;
     }
@@ -163,6 +186,26 @@ public class UploadPackageBuilder extends Builder implements SimpleBuildStep {
         return dependencies;
     }
 
+    public boolean isStreamUpload() {
+        return streamUpload;
+    }
+
+    public int getCompressionThreads() {
+        return compressionThreads;
+    }
+
+    public String getCompressionLevel() {
+        return compressionLevel;
+    }
+
+    public boolean isStoreCompressedFiles() {
+        return storeCompressedFiles;
+    }
+
+    public boolean isReuseCompressedEntries() {
+        return reuseCompressedEntries;
+    }
+
     @Override
     public void perform(Run<?, ?> run, FilePath workspace, Launcher launcher, TaskListener listener) throws InterruptedException, IOException {
         JenkinsHelper helper = new JenkinsHelper(run, listener);
@@ -218,6 +261,16 @@ public class UploadPackageBuilder extends Builder implements SimpleBuildStep {
             File baseDir = new File(workspace.getRemote());
             
             ProGetPackager packageUtils = new ProGetPackager();
+            packageUtils.setCompressionThreads(settings.compressionThreads > 0 ? settings.compressionThreads : config.compressionThreads);
+            packageUtils.setCompressionPolicy(new CompressionPolicy(CompressionLevel.fromFormat(settings.compressionLevel).getLevel(), settings.storeCompressedFiles));
+            
+            if (settings.reuseCompressedEntries) {
+                FilePath tempDir = WorkspaceList.tempDir(workspace);
+                
+                if (tempDir != null) {
+                    packageUtils.setEntryCache(new File(tempDir.getRemote(), "proget-package-cache"));
+                }
+            }
             
             List<ZipItem> files = packageUtils.getFileList(baseDir, settings.include, settings.exclude, settings.defaultExcludes, settings.caseSensitive);
               
@@ -239,7 +292,16 @@ public class UploadPackageBuilder extends Builder implements SimpleBuildStep {
                 return false;
             } 
             
+            if (settings.streamUpload) {
+                logWriter.info(String.format("Streaming Artifacts from %s to %s", baseDir.getPath(), config.url));
+                new ProGetApi(config, logWriter).uploadPackage(settings.feedName, out -> packageUtils.writePackage(baseDir, files, metadata, out));
+                logReusedEntries(logWriter, packageUtils, files.size());
+                
+                return true;
+            }
+            
             File pkg = packageUtils.createPackage(baseDir, files, metadata);
+            logReusedEntries(logWriter, packageUtils, files.size());
             
             logWriter.info(String.format("Uploading Artifacts from %s to %s", pkg.getPath(), config.url));
             new ProGetApi(config, logWriter).uploadPackage(settings.feedName, pkg);
@@ -247,10 +309,24 @@ public class UploadPackageBuilder extends Builder implements SimpleBuildStep {
             return true;
         }
 
+        private void logReusedEntries(JenkinsLogWriter logWriter, ProGetPackager packageUtils, int fileCount) {
+            if (settings.reuseCompressedEntries) {
+                logWriter.info(String.format("Reused %d of %d files from the previous package", packageUtils.getReusedEntries(), fileCount));
+            }
+        }
+
         private static final long serialVersionUID = 1L;
     }
 
     public PackageMetadata buildMetadata(JenkinsHelper helper) {
+        return buildMetadata(helper, groupName, packageName, version, title, description, icon, metadata, dependencies);
+    }
+
+    /**
+     * Build the package metadata from the step settings, returns null if the metadata setting is incorrectly formatted.
+     */
+    static PackageMetadata buildMetadata(JenkinsHelper helper, String groupName, String packageName, String version, String title, String description,
+            String icon, String metadata, String dependencies) {
         PackageMetadata pkgMetadata = new PackageMetadata();
 
         pkgMetadata.group = helper.expandVariable(groupName);
@@ -283,8 +359,8 @@ public class UploadPackageBuilder extends Builder implements SimpleBuildStep {
             }
         }
 
-        if (getDependencies() != null) {
-            try (Scanner scanner = new Scanner(getDependencies())) {
+        if (dependencies != null) {
+            try (Scanner scanner = new Scanner(dependencies)) {
                 while (scanner.hasNextLine()) {
                     String dependency = scanner.nextLine().trim();
 
@@ -302,10 +378,10 @@ public class UploadPackageBuilder extends Builder implements SimpleBuildStep {
     @Extension
     // This indicates to Jenkins that this is an implementation of an extension point.
     public static final class DescriptorImpl extends BuildStepDescriptor<Builder> {
-        private ProGetApi proget = null;
-        private String connectionError = "";
-        private String connectionWarning = "";
-        private Boolean isProGetAvailable = null;
+        // Shared by every request for the configuration page
+        private volatile String connectionError = "";
+        private volatile String connectionWarning = "";
+        private volatile Boolean isProGetAvailable = null;
 
         public DescriptorImpl() {
             super(UploadPackageBuilder.class);
@@ -346,29 +422,38 @@ public class UploadPackageBuilder extends Builder implements SimpleBuildStep {
          * Check if can connect to ProGet - if not prevent any more calls
          */
         public boolean getIsProGetAvailable() {
-            if (isProGetAvailable != null) {
+            Boolean available = isProGetAvailable;
+
+            if (available != null) {
+                return available;
+            }
+
+            synchronized (this) {
+                if (isProGetAvailable == null) {
+                    isProGetAvailable = checkConnection();
+                }
+
                 return isProGetAvailable;
             }
+        }
 
-            proget = new ProGetApi(new JenkinsConsoleLogWriter());
+        private boolean checkConnection() {
+            ProGetApi proget = new ProGetApi(new JenkinsConsoleLogWriter());
 
             try {
                 proget.canConnect();
             } catch (Exception ex) {
                 connectionError = "Unable to connect to Proget, please check the global settings: " + ex.getClass().getName() + " - " + ex.getMessage();
-                isProGetAvailable = false;
                 return false;
             }   
 
             if (!GlobalConfig.isProGetApiKeyFieldConfigured()) {
                 connectionWarning = "The ApiKey has not been configured in global settings, some features have been disabled.";
-                isProGetAvailable = false;
-            } else {
-                connectionError = "";
-                isProGetAvailable = true;
+                return false;
             }
 
-            return isProGetAvailable;
+            connectionError = "";
+            return true;
         }
 
         public ListBoxModel doFillFeedNameItems() throws IOException {
@@ -376,67 +461,45 @@ public class UploadPackageBuilder extends Builder implements SimpleBuildStep {
                 return null;
             }
 
-            SortedSet<String> set = new TreeSet<>();
             ListBoxModel items = new ListBoxModel();
-            Feed[] feeds = proget.getFeeds();
-
-            for (Feed feed : feeds) {
-                set.add(feed.Feed_Name);
-            }
 
             items.add("");
-            for (String value : set) {
+            for (String value : FeedMetadataCache.get().getFeedNames()) {
                 items.add(value);
             }
             
             return items;
         }
 
-        public ComboBoxModel doFillGroupNameItems(@QueryParameter String feedName) throws IOException {
-            if (!getIsProGetAvailable()) {
-                return null;
-            }
-
-            SortedSet<String> set = new TreeSet<>();
-            ComboBoxModel items = new ComboBoxModel();
+        public AutoCompletionCandidates doAutoCompleteGroupName(@QueryParameter String value, @QueryParameter String feedName) throws IOException {
+            AutoCompletionCandidates candidates = new AutoCompletionCandidates();
 
-            if (feedName != null && !feedName.isEmpty()) {
-                Feed feed = proget.getFeed(feedName);
-                ProGetPackage[] packages = proget.getPackages(feed.Feed_Id);
-
-                for (ProGetPackage pkg : packages) {
-                    set.add(pkg.Group_Name);
+            if (getIsProGetAvailable() && feedName != null && !feedName.isEmpty()) {
+                for (String group : FeedMetadataCache.get().findGroupNames(feedName, value)) {
+                    candidates.add(group);
                 }
             }
 
-            items.add("");
-            for (String value : set) {
-                items.add(value);
-            }
-
-            return items;
+            return candidates;
         }
 
-        public ComboBoxModel doFillPackageNameItems(@QueryParameter String feedName, @QueryParameter String groupName) throws IOException {
-            if (!getIsProGetAvailable()) {
-                return null;
-            }
-
-            SortedSet<String> set = new TreeSet<>();
-            ComboBoxModel items = new ComboBoxModel();
+        public AutoCompletionCandidates doAutoCompletePackageName(@QueryParameter String value, @QueryParameter String feedName, @QueryParameter String groupName) throws IOException {
+            AutoCompletionCandidates candidates = new AutoCompletionCandidates();
 
-            if (feedName != null && !feedName.isEmpty()) {
-                Feed feed = proget.getFeed(feedName);
-                ProGetPackage[] packages = proget.getPackages(feed.Feed_Id, groupName);
-
-                for (ProGetPackage pkg : packages) {
-                    set.add(pkg.Package_Name);
+            if (getIsProGetAvailable() && feedName != null && !feedName.isEmpty()) {
+                for (String name : FeedMetadataCache.get().findPackageNames(feedName, groupName, value)) {
+                    candidates.add(name);
                 }
             }
 
-            items.add("");
-            for (String value : set) {
-                items.add(value);
+            return candidates;
+        }
+
+        public ListBoxModel doFillCompressionLevelItems() {
+            ListBoxModel items = new ListBoxModel();
+
+            for (CompressionLevel level : CompressionLevel.values()) {
+                items.add(level.getDisplay(), level.getFormat());
             }
 
             return items;
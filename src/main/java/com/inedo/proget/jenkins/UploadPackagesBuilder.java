@@ -0,0 +1,311 @@
+package com.inedo.proget.jenkins;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.jenkinsci.Symbol;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+
+import com.inedo.proget.api.CompressionPolicy;
+import com.inedo.proget.api.DaemonThreadFactory;
+import com.inedo.proget.api.ProGetApi;
+import com.inedo.proget.api.ProGetConfig;
+import com.inedo.proget.api.ProGetPackager;
+import com.inedo.proget.api.ProGetPackager.FileSelection;
+import com.inedo.proget.api.ProGetPackager.ZipItem;
+import com.inedo.proget.domain.PackageMetadata;
+import com.inedo.proget.jenkins.utils.JenkinsHelper;
+import com.inedo.proget.jenkins.utils.JenkinsLogWriter;
+import com.inedo.proget.jenkins.utils.JenkinsTaskLogWriter;
+
+import hudson.AbortException;
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.model.AbstractProject;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.tasks.BuildStepDescriptor;
+import hudson.tasks.Builder;
+import hudson.util.ListBoxModel;
+import jenkins.security.MasterToSlaveCallable;
+import jenkins.tasks.SimpleBuildStep;
+
+/**
+ * Builds and uploads a number of universal packages to ProGet in one step.  The workspace is scanned once for the
+ * files of all the packages, then the packages are built and uploaded concurrently by the agent.
+ *
+ * @author Andrew Sumner
+ */
+public class UploadPackagesBuilder extends Builder implements SimpleBuildStep {
+    private final List<PackageUpload> packages;
+    private int parallelUploads = 4;
+    private int compressionThreads = 0;
+    private String compressionLevel = CompressionLevel.DEFAULT.getFormat();
+    private boolean storeCompressedFiles = false;
+    private boolean streamUpload = false;
+
+    // Fields in config.jelly must match the parameter names in the "DataBoundConstructor"
+    @DataBoundConstructor
+    public UploadPackagesBuilder(List<PackageUpload> packages) {
+        this.packages = packages == null ? Collections.emptyList() : new ArrayList<>(packages);
+    }
+
+    public List<PackageUpload> getPackages() {
+        return Collections.unmodifiableList(packages);
+    }
+
+    @DataBoundSetter public void setParallelUploads(int parallelUploads) {
+        this.parallelUploads = parallelUploads;
+    }
+
+    public int getParallelUploads() {
+        return parallelUploads;
+    }
+
+    @DataBoundSetter public void setCompressionThreads(int compressionThreads) {
+        this.compressionThreads = compressionThreads;
+    }
+
+    public int getCompressionThreads() {
+        return compressionThreads;
+    }
+
+    @DataBoundSetter public void setCompressionLevel(String compressionLevel) {
+        this.compressionLevel = compressionLevel;
+    }
+
+    public String getCompressionLevel() {
+        return compressionLevel;
+    }
+
+    @DataBoundSetter public void setStoreCompressedFiles(boolean storeCompressedFiles) {
+        this.storeCompressedFiles = storeCompressedFiles;
+    }
+
+    public boolean isStoreCompressedFiles() {
+        return storeCompressedFiles;
+    }
+
+    @DataBoundSetter public void setStreamUpload(boolean streamUpload) {
+        this.streamUpload = streamUpload;
+    }
+
+    public boolean isStreamUpload() {
+        return streamUpload;
+    }
+
+    @Override
+    public void perform(Run<?, ?> run, FilePath workspace, Launcher launcher, TaskListener listener) throws InterruptedException, IOException {
+        JenkinsHelper helper = new JenkinsHelper(run, listener);
+
+        if (!GlobalConfig.isRequiredFieldsConfigured()) {
+            throw new AbortException("Please configure ProGet Plugin global settings");
+        }
+
+        if (!GlobalConfig.isUserNameConfigured()) {
+            throw new AbortException("Please configure user credentials in ProGet Plugin global settings");
+        }
+
+        List<Upload> uploads = new ArrayList<>();
+        Set<String> packageFiles = new HashSet<>();
+
+        for (PackageUpload pkg : packages) {
+            String artifacts = helper.expandVariable(pkg.getArtifacts());
+
+            if (artifacts == null || artifacts.isEmpty()) {
+                throw new AbortException("Files to package not set for package " + pkg.getPackageName());
+            }
+
+            PackageMetadata metadata = pkg.buildMetadata(helper);
+            if (metadata == null) {
+                throw new AbortException("Metadata is incorrectly formatted for package " + pkg.getPackageName());
+            }
+
+            // Packages are built in the workspace and named after the package
+            if (!streamUpload && !packageFiles.add(metadata.packageName.replace(" ", ""))) {
+                throw new AbortException("Package " + metadata.packageName + " is listed more than once, enable streaming to upload packages with the same name");
+            }
+
+            uploads.add(new Upload(helper.expandVariable(pkg.getFeedName()),
+                    new FileSelection(artifacts, helper.expandVariable(pkg.getExcludes()), pkg.isDefaultExcludes(), pkg.isCaseSensitive()),
+                    metadata));
+        }
+
+        if (!launcher.getChannel().call(new PutPackages(listener, GlobalConfig.getProGetConfig(), workspace, uploads, this))) {
+            throw new AbortException("Failed to upload packages");
+        }
+    }
+
+    /** The details of a package sent to the agent */
+    private static class Upload implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final String feedName;
+        private final FileSelection selection;
+        private final PackageMetadata metadata;
+
+        Upload(String feedName, FileSelection selection, PackageMetadata metadata) {
+            this.feedName = feedName;
+            this.selection = selection;
+            this.metadata = metadata;
+        }
+
+        String getDescription() {
+            return (metadata.group == null || metadata.group.isEmpty() ? "" : metadata.group + "/") + metadata.packageName + " " + metadata.version;
+        }
+    }
+
+    // Define what should be run on the slave for this build
+    private static class PutPackages extends MasterToSlaveCallable<Boolean, IOException> {
+        private final TaskListener listener;
+        private final ProGetConfig config;
+        private final FilePath workspace;
+        private final List<Upload> uploads;
+        private final int parallelUploads;
+        private final int compressionThreads;
+        private final CompressionPolicy compressionPolicy;
+        private final boolean streamUpload;
+
+        public PutPackages(TaskListener listener, ProGetConfig config, FilePath workspace, List<Upload> uploads, UploadPackagesBuilder settings) {
+            this.listener = listener;
+            this.config = config;
+            this.workspace = workspace;
+            this.uploads = uploads;
+            this.parallelUploads = settings.parallelUploads;
+            this.compressionThreads = settings.compressionThreads > 0 ? settings.compressionThreads : config.compressionThreads;
+            this.compressionPolicy = new CompressionPolicy(CompressionLevel.fromFormat(settings.compressionLevel).getLevel(), settings.storeCompressedFiles);
+            this.streamUpload = settings.streamUpload;
+        }
+
+        public Boolean call() throws IOException {
+            JenkinsLogWriter logWriter = new JenkinsTaskLogWriter(listener);
+            File baseDir = new File(workspace.getRemote());
+            List<FileSelection> selections = new ArrayList<>();
+
+            if (uploads.isEmpty()) {
+                return true;
+            }
+
+            for (Upload upload : uploads) {
+                selections.add(upload.selection);
+            }
+
+            long start = System.nanoTime();
+            List<List<ZipItem>> fileLists = new ProGetPackager().getFileLists(baseDir, selections);
+            boolean missingFiles = false;
+
+            logWriter.info(String.format("Scanned workspace for %d packages in %.1f seconds", uploads.size(), (System.nanoTime() - start) / 1e9));
+
+            for (int i = 0; i < uploads.size(); i++) {
+                if (fileLists.get(i).isEmpty()) {
+                    missingFiles = true;
+                    logWriter.error("No files found matching Files to package setting '" + selections.get(i).getArtifacts() + "' for " + uploads.get(i).getDescription());
+                }
+            }
+
+            if (missingFiles) {
+                return false;
+            }
+
+            List<Future<?>> results = new ArrayList<>();
+            int failed = 0;
+
+            ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(parallelUploads, uploads.size())), new DaemonThreadFactory("ProGet upload"));
+
+            try {
+                for (int i = 0; i < uploads.size(); i++) {
+                    Upload upload = uploads.get(i);
+                    List<ZipItem> files = fileLists.get(i);
+
+                    results.add(pool.submit(() -> {
+                        long uploadStart = System.nanoTime();
+
+                        upload(logWriter, baseDir, upload, files);
+                        logWriter.info(String.format("Uploaded %s (%d files) in %.1f seconds", upload.getDescription(), files.size(), (System.nanoTime() - uploadStart) / 1e9));
+
+                        return null;
+                    }));
+                }
+
+                for (int i = 0; i < uploads.size(); i++) {
+                    try {
+                        results.get(i).get();
+                    } catch (ExecutionException e) {
+                        failed++;
+                        logWriter.error("Failed to upload " + uploads.get(i).getDescription() + ": " + e.getCause().getMessage());
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Upload interrupted", e);
+            } finally {
+                pool.shutdownNow();
+            }
+
+            if (failed > 0) {
+                logWriter.error(String.format("%d of %d packages failed to upload", failed, uploads.size()));
+                return false;
+            }
+
+            return true;
+        }
+
+        private void upload(JenkinsLogWriter logWriter, File baseDir, Upload upload, List<ZipItem> files) throws IOException {
+            ProGetPackager packageUtils = new ProGetPackager();
+            packageUtils.setCompressionThreads(compressionThreads);
+            packageUtils.setCompressionPolicy(compressionPolicy);
+
+            if (streamUpload) {
+                new ProGetApi(config, logWriter).uploadPackage(upload.feedName, out -> packageUtils.writePackage(baseDir, files, upload.metadata, out));
+                return;
+            }
+
+            File pkg = packageUtils.createPackage(baseDir, files, upload.metadata);
+            new ProGetApi(config, logWriter).uploadPackage(upload.feedName, pkg);
+        }
+
+        private static final long serialVersionUID = 1L;
+    }
+
+    @Symbol("uploadProgetPackages")
+    @Extension
+    // This indicates to Jenkins that this is an implementation of an extension point.
+    public static final class DescriptorImpl extends BuildStepDescriptor<Builder> {
+        public DescriptorImpl() {
+            super(UploadPackagesBuilder.class);
+        }
+
+        @SuppressWarnings("rawtypes")
+        public boolean isApplicable(Class<? extends AbstractProject> jobType) {
+            // Indicates that this builder can be used with all kinds of project types
+            return true;
+        }
+
+        @Override
+        public String getDisplayName() {
+            return "ProGet Package Batch Upload";
+        }
+
+        public ListBoxModel doFillCompressionLevelItems() {
+            ListBoxModel items = new ListBoxModel();
+
+            for (CompressionLevel level : CompressionLevel.values()) {
+                items.add(level.getDisplay(), level.getFormat());
+            }
+
+            return items;
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.inedo.proget.jenkins.utils;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import hudson.model.InvisibleAction;
+import hudson.model.Run;
+
+/**
+ * Records the version "latest", or a version range, was resolved to for each package downloaded by a build, so every
+ * step in the build downloads the same version.
+ *
+ * Each package is resolved under its own lock, so parallel branches resolving different packages don't wait on each
+ * other's lookups, while branches resolving the same package share the one lookup.
+ *
+ * @author Andrew Sumner
+ */
+public class ResolvedVersionsAction extends InvisibleAction {
+    private final Map<String, String> versions = new HashMap<>();
+    private transient Map<String, Object> locks;
+
+    /**
+     * Get the action for a build, adding it if the build doesn't have one yet.
+     */
+    public static ResolvedVersionsAction of(Run<?, ?> build) {
+        synchronized (ResolvedVersionsAction.class) {
+            ResolvedVersionsAction action = build.getAction(ResolvedVersionsAction.class);
+
+            if (action == null) {
+                action = new ResolvedVersionsAction();
+                build.addAction(action);
+            }
+
+            return action;
+        }
+    }
+
+    /**
+     * Get the version a package was resolved to earlier in the build, or resolve it now.
+     *
+     * @param range The version range, or null for the latest version
+     * @param resolver Looks up the version, returning null if it couldn't be found
+     * @return The version, or null if the resolver didn't find one, in which case nothing is recorded
+     */
+    public String resolve(String feedName, String groupName, String packageName, String range, Resolver resolver) throws IOException {
+        String key = key(feedName, groupName, packageName, range);
+        Object lock;
+
+        synchronized (this) {
+            String found = versions.get(key);
+
+            if (found != null) {
+                return found;
+            }
+
+            if (locks == null) {
+                locks = new HashMap<>();
+            }
+
+            lock = locks.computeIfAbsent(key, k -> new Object());
+        }
+
+        synchronized (lock) {
+            synchronized (this) {
+                String found = versions.get(key);
+
+                if (found != null) {
+                    return found;
+                }
+            }
+
+            String found = resolver.resolve();
+
+            if (found != null) {
+                synchronized (this) {
+                    versions.put(key, found);
+                }
+            }
+
+            return found;
+        }
+    }
+
+    private static String key(String feedName, String groupName, String packageName, String range) {
+        return feedName + "/" + (groupName == null ? "" : groupName) + "/" + packageName + (range == null ? "" : "@" + range.trim());
+    }
+
+    public interface Resolver {
+        String resolve() throws IOException;
+    }
+}
@@ -0,0 +1,46 @@
+// Jenkins only sends the typed text with an auto-complete request, so suggestions for a group, package or version
+// would not know which feed, group or package they belong to.  This takes over the text boxes that name the fields
+// they depend on in an autoCompleteDependsOn attribute and sends the current value of each of those fields as well.
+// It runs before the standard auto-complete behaviour and removes its class so the text box isn't set up twice.
+Behaviour.specify("INPUT.auto-complete[autoCompleteDependsOn]", "proget-dependent-auto-complete", -100, function(e) {
+    $(e).removeClassName("auto-complete");
+
+    var div = document.createElement("DIV");
+    e.parentNode.insertBefore(div, $(e).next() || null);
+    e.style.position = "relative";
+
+    var ds = new YAHOO.util.XHRDataSource(e.getAttribute("autoCompleteUrl"));
+    ds.responseType = YAHOO.util.XHRDataSource.TYPE_JSON;
+    ds.responseSchema = {
+        resultsList: "suggestions",
+        fields: ["name"]
+    };
+
+    var ac = new YAHOO.widget.AutoComplete(e, div, ds);
+    ac.generateRequest = function(query) {
+        // The query is already encoded
+        var request = "?value=" + query;
+
+        e.getAttribute("autoCompleteDependsOn").split(" ").each(function(name) {
+            var field = findNearBy(e, name);
+
+            if (name != "" && field != null) {
+                request += "&" + encodeURIComponent(name) + "=" + encodeURIComponent(field.value);
+            }
+        });
+
+        return request;
+    };
+    ac.autoHighlight = false;
+    ac.prehighlightClassName = "yui-ac-prehighlight";
+    ac.animSpeed = 0;
+    ac.formatResult = ac.formatEscapedResult;
+    ac.useShadow = true;
+    ac.autoSnapContainer = true;
+    ac.doBeforeExpandContainer = function(textbox, container) {
+        container.style.width = textbox.clientWidth + "px";
+        var Dom = YAHOO.util.Dom;
+        Dom.setXY(container, [Dom.getX(textbox), Dom.getY(textbox) + textbox.offsetHeight]);
+        return true;
+    };
+});
@@ -3,7 +3,9 @@ package com.inedo.proget.api;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.greaterThan;
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
 import static org.hamcrest.Matchers.startsWith;
+import static org.junit.Assert.fail;
 
 import java.io.BufferedWriter;
 import java.io.File;
@@ -13,11 +15,20 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.zip.ZipFile;
 
 import org.apache.commons.io.IOUtils;
 import org.junit.AfterClass;
+import org.junit.Assume;
 import org.junit.BeforeClass;
 import org.junit.Rule;
 import org.junit.Test;
@@ -144,6 +155,89 @@ public class ProGetApiTests {
         }
     }
 
+    @Test
+    public void streamPackageList() throws IOException {
+        Feed feed = proget.getFeed("Example");
+        List<ProGetPackage> packages = new ArrayList<>();
+
+        proget.forEachPackage(feed.Feed_Id, null, packages::add);
+
+        assertThat("Same packages as getPackages", packages.size(), is(proget.getPackages(feed.Feed_Id).length));
+
+        for (ProGetPackage pkg : packages) {
+            assertThat("Feed id is shared", pkg.Feed_Id == packages.get(0).Feed_Id, is(true));
+        }
+    }
+
+    @Test
+    public void listNamesWithoutVersions() throws IOException {
+        Feed feed = proget.getFeed("Example");
+        ProGetPackage pkg = proget.getPackages(feed.Feed_Id)[0];
+
+        assertThat("Group listed", Arrays.asList(proget.getGroupNames(feed.Feed_Id)).contains(pkg.Group_Name), is(true));
+        assertThat("Package listed", Arrays.asList(proget.getPackageNames(feed.Feed_Id, pkg.Group_Name)).contains(pkg.Package_Name), is(true));
+
+        String[] versions = proget.getVersionNames(feed, pkg.Group_Name, pkg.Package_Name, 0);
+
+        assertThat("Versions listed", versions.length, is(greaterThan(0)));
+        assertThat("Versions limited to count", proget.getVersionNames(feed, pkg.Group_Name, pkg.Package_Name, 1).length, is(1));
+    }
+
+    @Test
+    public void resolveVersionRanges() {
+        VersionIndex index = new VersionIndex(Arrays.asList("1.9.0", "1.10.0", "1.4.2", "1.4.10", "2.0.0", "2.3.1", "3.1.0", "3.9.9", "4.0.0", "4.1.0-beta"));
+
+        assertThat("Versions in semantic version order", index.getVersions().subList(0, 3), is(Arrays.asList("4.1.0-beta", "4.0.0", "3.9.9")));
+        assertThat("Wildcard", index.resolve(VersionRange.parse("1.4.*")), is("1.4.10"));
+        assertThat("Caret", index.resolve(VersionRange.parse("^2.0")), is("2.3.1"));
+        assertThat("Comparisons", index.resolve(VersionRange.parse(">=3.1 <4")), is("3.9.9"));
+        assertThat("Interval", index.resolve(VersionRange.parse("[1.0,2.0)")), is("1.10.0"));
+        assertThat("Pre-releases not matched", index.resolve(VersionRange.parse(">4")), is((String) null));
+        assertThat("Exact version is not a range", VersionRange.isRange("1.0.0-x"), is(false));
+        assertThat("Newest in every range", index.resolve(Arrays.asList(VersionRange.parse(">=1.4"), VersionRange.parse("<2.0"))), is("1.10.0"));
+        assertThat("No version in every range", index.resolve(Arrays.asList(VersionRange.parse("^1.0"), VersionRange.parse("^2.0"))), is((String) null));
+    }
+
+    @Test
+    public void concurrentIdenticalRequestsShareOneCall() throws Exception {
+        SingleFlight<String> flight = new SingleFlight<>();
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch started = new CountDownLatch(10);
+        ExecutorService pool = Executors.newFixedThreadPool(10);
+        List<Future<String>> results = new ArrayList<>();
+
+        try {
+            for (int i = 0; i < 10; i++) {
+                results.add(pool.submit(() -> {
+                    started.countDown();
+
+                    return flight.call("feeds", () -> {
+                        calls.incrementAndGet();
+
+                        // Hold the call open until every caller has asked for it
+                        try {
+                            started.await();
+                            Thread.sleep(200);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+
+                        return "result";
+                    });
+                }));
+            }
+
+            for (Future<String> result : results) {
+                assertThat("Result shared", result.get(), is("result"));
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        assertThat("One call made", calls.get(), is(1));
+        assertThat("Nothing kept once complete", flight.size(), is(0));
+    }
+
     @Test
     public void getPackageVersions() throws IOException {
         Feed feed = proget.getFeed("Example");
@@ -162,6 +256,52 @@ public class ProGetApiTests {
         }
     }
 
+    @Test
+    public void getPackageVersionsConcurrently() throws IOException {
+        Feed feed = proget.getFeed("Example");
+        ProGetPackage[] pkgs = proget.getPackages(feed.Feed_Id);
+        List<CompletableFuture<PackageVersion[]>> requests = new ArrayList<>();
+
+        for (ProGetPackage pkg : pkgs) {
+            requests.add(proget.getPackageVersionsAsync(feed.Feed_Id, pkg.Group_Name, pkg.Package_Name));
+        }
+
+        CompletableFuture.allOf(requests.toArray(new CompletableFuture<?>[0])).join();
+
+        for (CompletableFuture<PackageVersion[]> request : requests) {
+            assertThat("Expect at least one version", request.join().length, is(greaterThan(0)));
+        }
+    }
+
+    @Test
+    public void resolveLatestVersion() throws IOException {
+        Feed feed = proget.getFeed("Example");
+
+        ProGetPackage pkg = proget.getPackages(feed.Feed_Id)[0];
+        String version = proget.resolveLatestVersion(feed.Feed_Name, pkg.Group_Name, pkg.Package_Name);
+
+        assertThat("Latest version found", version, is(pkg.LatestVersion_Text));
+        assertThat("Unchanged version revalidated", proget.resolveLatestVersion(feed.Feed_Name, pkg.Group_Name, pkg.Package_Name), is(version));
+    }
+
+    @Test
+    public void latestVersionsAreCachedPerUser() {
+        ProGetConfig first = new ProGetConfig();
+        first.url = "http://localhost";
+        first.user = "first";
+        first.password = "secret";
+
+        ProGetConfig second = new ProGetConfig();
+        second.url = first.url;
+        second.user = "second";
+        second.password = "secret";
+
+        String key = LatestVersionCache.key(first, "Example", "group", "package");
+
+        assertThat("Users have their own entries", LatestVersionCache.key(second, "Example", "group", "package"), is(not(key)));
+        assertThat("Password not held in key", key.contains("secret"), is(false));
+    }
+
     @Test
     public void downloadPackage() throws IOException {
         Feed feed = proget.getFeed("Example");
@@ -201,6 +341,58 @@ public class ProGetApiTests {
         assertThat("File has content", downloaded.length(), is(greaterThan((long)1000)));
     }
 
+    @Test
+    public void downloadPackageInSegments() throws IOException {
+        Feed feed = proget.getFeed("Example");
+
+        ProGetPackage pkg = proget.getPackages(feed.Feed_Id)[0];
+
+        File downloaded = proget.downloadPackage(feed.Feed_Name, pkg.Group_Name, pkg.Package_Name, pkg.LatestVersion_Text, folder.getRoot().getAbsolutePath(),
+                DownloadFormat.PACKAGE, 4);
+
+        try (ZipFile zip = new ZipFile(downloaded)) {
+            assertThat("Package file has content", zip.size(), is(greaterThan(0)));
+        }
+
+        assertThat("Partial download removed", new File(downloaded.getPath() + ".part").exists(), is(false));
+    }
+
+    @Test
+    public void downloadPackageToCache() throws IOException {
+        Feed feed = proget.getFeed("Example");
+
+        ProGetPackage pkg = proget.getPackages(feed.Feed_Id)[0];
+        PackageCache cache = new PackageCache(folder.newFolder("cache"), 1024 * 1024);
+
+        assertThat("Package not yet cached", cache.get(feed.Feed_Name, pkg.Group_Name, pkg.Package_Name, pkg.LatestVersion_Text, "pkg") == null, is(true));
+
+        File downloaded = proget.downloadPackage(feed.Feed_Name, pkg.Group_Name, pkg.Package_Name, pkg.LatestVersion_Text, cache.createTempFolder().getPath(),
+                DownloadFormat.PACKAGE, 1);
+        long length = downloaded.length();
+
+        cache.put(feed.Feed_Name, pkg.Group_Name, pkg.Package_Name, pkg.LatestVersion_Text, "pkg", downloaded);
+
+        PackageCache.CachedPackage cached = cache.get(feed.Feed_Name, pkg.Group_Name, pkg.Package_Name, pkg.LatestVersion_Text, "pkg");
+
+        assertThat("Package served from cache", cached.getContent().length(), is(length));
+        assertThat("Cached under downloaded name", cached.getFileName(), is(downloaded.getName()));
+    }
+
+    @Test
+    public void downloadPackageContentWhileDownloading() throws IOException {
+        Feed feed = proget.getFeed("Example");
+
+        ProGetPackage pkg = proget.getPackages(feed.Feed_Id)[0];
+
+        proget.downloadPackageContent(feed.Feed_Name, pkg.Group_Name, pkg.Package_Name, pkg.LatestVersion_Text, folder.getRoot().getAbsolutePath(), new PackageExtractor(0));
+
+        assertThat("Content has been unpacked", folder.getRoot().listFiles().length, is(greaterThan(0)));
+
+        for (File file : folder.getRoot().listFiles()) {
+            assertThat("Package was not written to disk", file.getName().endsWith(".upack"), is(false));
+        }
+    }
+
     @Test
     public void uploadPackage() throws IOException {
         preparePackageFiles();
@@ -217,6 +409,43 @@ public class ProGetApiTests {
         // Success is fact that no exception thrown...
     }
 
+    @Test
+    public void uploadPackageStreamed() throws IOException {
+        preparePackageFiles();
+
+        JenkinsHelper helper = new JenkinsHelper();
+        ProGetPackager packageUtils = new ProGetPackager();
+        UploadPackageBuilder builder = getExampleBuilder("**/*.*", "");
+        List<ZipItem> files = packageUtils.getFileList(folder.getRoot(), builder.getArtifacts(), builder.getExcludes(), builder.isDefaultExcludes(), builder.isCaseSensitive());
+
+        proget.uploadPackage("Example", out -> packageUtils.writePackage(folder.getRoot(), files, builder.buildMetadata(helper), out));
+
+        assertThat("Package was not written to the workspace", new File(folder.getRoot(), "ExamplePackage.upack").exists(), is(false));
+    }
+
+    @Test
+    public void failedStreamedUploadIsNotSent() throws IOException {
+        Assume.assumeTrue("Uploads are only counted by the mock server", mockServer != null);
+
+        int uploads = mockServer.getUploads();
+
+        try {
+            proget.uploadPackage("Example", out -> {
+                // More than a chunk, so part of the package has been sent when the writer fails
+                out.write(new byte[256 * 1024]);
+                throw new IOException("Package could not be built");
+            });
+
+            fail("Writer failure not reported");
+        } catch (IOException e) {
+            assertThat("Writer failure reported", e.getMessage(), is("Package could not be built"));
+        }
+
+        proget.uploadPackage("Example", out -> out.write(new byte[] { 1, 2, 3 }));
+
+        assertThat("Only the complete upload was received", mockServer.getUploads(), is(uploads + 1));
+    }
+
     private void preparePackageFiles() throws IOException {
         createFile(new File(folder.getRoot(), "sample.data"), "This is a sample data file");
         createFile(new File(folder.getRoot(), "sample.txt"), "This is a sample text file");
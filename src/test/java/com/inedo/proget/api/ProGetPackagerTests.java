@@ -8,19 +8,32 @@ import static org.hamcrest.Matchers.greaterThan;
 import static org.hamcrest.Matchers.is;
 import static org.hamcrest.Matchers.not;
 import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
 import static org.junit.Assert.fail;
 
 import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.zip.Deflater;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipException;
 import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
 
+import org.apache.tools.ant.DirectoryScanner;
+import org.junit.Assume;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
@@ -29,7 +42,9 @@ import org.junit.rules.TemporaryFolder;
 import com.google.common.io.Files;
 import com.google.gson.JsonParseException;
 import com.google.gson.JsonParser;
+import com.inedo.proget.api.ProGetPackager.FileSelection;
 import com.inedo.proget.api.ProGetPackager.ZipItem;
+import com.inedo.proget.domain.PackageMetadata;
 import com.inedo.proget.jenkins.UploadPackageBuilder;
 import com.inedo.proget.jenkins.utils.JenkinsHelper;
 
@@ -69,6 +84,53 @@ public class ProGetPackagerTests {
         assertThat("Desintation file has removed bin folder", files.get(0).getDestinationFile(), is(equalTo("logs/sample.log")));
     }
 
+    @Test
+    public void consolidateNestedFolders() {
+        UploadPackageBuilder builder = getExampleBuilder("[bin]/**/*.data, [bin/logs]/*.log", "");
+        List<ZipItem> files = packageUtils.getFileList(folder.getRoot(), builder.getArtifacts(), builder.getExcludes(), builder.isDefaultExcludes(), builder.isCaseSensitive());
+
+        assertThat("Expected files were found", files.size(), is(equalTo(3)));
+        assertThat("Desintation file has removed bin/logs folder", files.get(0).getDestinationFile(), is(equalTo("sample.log")));
+        assertThat("Desintation file has removed bin folder", files.get(1).getDestinationFile(), is(equalTo("more/sample.data")));
+        assertThat("Desintation file has removed bin folder", files.get(2).getDestinationFile(), is(equalTo("sample.data")));
+    }
+
+    @Test
+    public void fileListIsInPathOrder() {
+        UploadPackageBuilder builder = getExampleBuilder("**/*.*", "");
+        List<ZipItem> files = packageUtils.getFileList(folder.getRoot(), builder.getArtifacts(), builder.getExcludes(), builder.isDefaultExcludes(), builder.isCaseSensitive());
+
+        assertThat("Expected files were found", files.size(), is(equalTo(5)));
+
+        for (int i = 1; i < files.size(); i++) {
+            assertThat("Files are sorted", files.get(i).getSourceFile().compareTo(files.get(i - 1).getSourceFile()), is(greaterThan(0)));
+        }
+    }
+
+    @Test
+    public void sharedScanMatchesSeparateScans() {
+        List<FileSelection> selections = Arrays.asList(
+                new FileSelection("[bin]/**/*.data, [bin/logs]/*.log", "", true, true),
+                new FileSelection("**/*.*", "bin/logs/", true, true),
+                new FileSelection("missing/**", "", true, true));
+
+        List<List<ZipItem>> fileLists = packageUtils.getFileLists(folder.getRoot(), selections);
+
+        assertThat("A list is returned for each selection", fileLists.size(), is(equalTo(3)));
+        assertThat("Nothing found for missing folder", fileLists.get(2).isEmpty(), is(true));
+
+        for (int i = 0; i < 2; i++) {
+            List<ZipItem> files = packageUtils.getFileList(folder.getRoot(), selections.get(i).getArtifacts(), i == 0 ? "" : "bin/logs/", true, true);
+
+            assertThat("Same number of files found", fileLists.get(i).size(), is(equalTo(files.size())));
+
+            for (int f = 0; f < files.size(); f++) {
+                assertThat("Same file found", fileLists.get(i).get(f).getSourceFile(), is(equalTo(files.get(f).getSourceFile())));
+                assertThat("Same destination", fileLists.get(i).get(f).getDestinationFile(), is(equalTo(files.get(f).getDestinationFile())));
+            }
+        }
+    }
+
     @Test
     public void createPackageFromAntIncludes() throws IOException {
         UploadPackageBuilder builder = getExampleBuilder("[bin]/**/*.*", "bin/logs/");
@@ -79,6 +141,125 @@ public class ProGetPackagerTests {
         verifyPackage(pkg, 4);
     }
 
+    @Test
+    public void readDependenciesFromPackage() throws IOException {
+        UploadPackageBuilder builder = getExampleBuilder("[bin]/**/*.*", "");
+        List<ZipItem> files = packageUtils.getFileList(folder.getRoot(), builder.getArtifacts(), builder.getExcludes(), builder.isDefaultExcludes(), builder.isCaseSensitive());
+        File pkg = packageUtils.createPackage(folder.getRoot(), files, builder.buildMetadata(helper));
+
+        PackageMetadata metadata = ProGetPackager.readMetadata(pkg);
+
+        assertThat("Package name read", metadata.packageName, is(equalTo("ExamplePackage")));
+        assertThat("Dependencies read", metadata.dependencies.size(), is(equalTo(2)));
+
+        PackageDependency dependency = PackageDependency.parse(metadata.dependencies.get(0));
+        assertThat("Dependency group", dependency.getGroup(), is(equalTo("my.dependency")));
+        assertThat("Dependency name", dependency.getName(), is(equalTo("one")));
+        assertThat("Latest version used when none given", ProGetApi.isLatest(dependency.getVersion()), is(true));
+        assertThat("Dependency version", PackageDependency.parse("group/sub:name:1.0.2").getVersion(), is(equalTo("1.0.2")));
+    }
+
+    @Test
+    public void parallelPackageMatchesSequentialPackage() throws IOException {
+        UploadPackageBuilder builder = getExampleBuilder("[bin]/**/*.*", "");
+        List<ZipItem> files = packageUtils.getFileList(folder.getRoot(), builder.getArtifacts(), builder.getExcludes(), builder.isDefaultExcludes(), builder.isCaseSensitive());
+
+        ProGetPackager sequential = new ProGetPackager();
+        sequential.setCompressionThreads(1);
+        File single = folder.newFile("single.upack");
+        try (OutputStream out = new FileOutputStream(single)) {
+            sequential.writePackage(folder.getRoot(), files, builder.buildMetadata(helper), out);
+        }
+
+        ProGetPackager parallel = new ProGetPackager();
+        parallel.setCompressionThreads(4);
+        File multi = folder.newFile("multi.upack");
+        try (OutputStream out = new FileOutputStream(multi)) {
+            parallel.writePackage(folder.getRoot(), files, builder.buildMetadata(helper), out);
+        }
+
+        verifyPackage(multi, 6);
+
+        try (ZipFile expected = new ZipFile(single); ZipFile actual = new ZipFile(multi)) {
+            List<? extends ZipEntry> expectedEntries = Collections.list(expected.entries());
+            List<? extends ZipEntry> actualEntries = Collections.list(actual.entries());
+
+            assertThat("Same number of entries", actualEntries.size(), is(equalTo(expectedEntries.size())));
+
+            for (int i = 0; i < expectedEntries.size(); i++) {
+                assertThat("Entries are in the same order", actualEntries.get(i).getName(), is(equalTo(expectedEntries.get(i).getName())));
+                assertThat("Entries have the same content", actualEntries.get(i).getCrc(), is(equalTo(expectedEntries.get(i).getCrc())));
+            }
+        }
+    }
+
+    @Test
+    public void alreadyCompressedFilesAreStored() throws IOException {
+        createFile(new File(folder.getRoot(), "images/picture.png"), "Not really an image");
+        createFile(new File(folder.getRoot(), "images/readme.txt"), "Some text");
+
+        ProGetPackager packager = new ProGetPackager();
+        packager.setCompressionPolicy(new CompressionPolicy(Deflater.BEST_SPEED, true));
+
+        UploadPackageBuilder builder = getExampleBuilder("images/*", "");
+        List<ZipItem> files = packager.getFileList(folder.getRoot(), builder.getArtifacts(), builder.getExcludes(), builder.isDefaultExcludes(), builder.isCaseSensitive());
+        File pkg = packager.createPackage(folder.getRoot(), files, builder.buildMetadata(helper));
+
+        try (ZipFile zip = new ZipFile(pkg)) {
+            assertThat("Image is stored", zip.getEntry("package/images/picture.png").getMethod(), is(equalTo(ZipEntry.STORED)));
+            assertThat("Text is deflated", zip.getEntry("package/images/readme.txt").getMethod(), is(equalTo(ZipEntry.DEFLATED)));
+        }
+    }
+
+    @Test
+    public void storedFileChangedWhilePackagingIsDetected() throws IOException {
+        File image = new File(folder.newFolder("images"), "picture.png");
+        Files.write("Not really an image".getBytes(StandardCharsets.UTF_8), image);
+
+        CompressedEntry entry = CompressedEntry.deflate(image, "package/images/picture.png", Deflater.NO_COMPRESSION);
+        long modified = image.lastModified();
+
+        // Same size and modified time, different content
+        Files.write("NOT really an image".getBytes(StandardCharsets.UTF_8), image);
+        image.setLastModified(modified);
+
+        try {
+            entry.writeDataTo(new ByteArrayOutputStream());
+            fail("Changed file was packaged");
+        } catch (IOException e) {
+            assertThat("Change reported", e.getMessage(), containsString("changed while it was being packaged"));
+        } finally {
+            entry.release();
+        }
+    }
+
+    @Test
+    public void unchangedFilesAreReusedFromPreviousPackage() throws IOException {
+        File cache = folder.newFolder("cache");
+        UploadPackageBuilder builder = getExampleBuilder("bin/**/*.*", "");
+
+        ProGetPackager first = new ProGetPackager();
+        first.setEntryCache(cache);
+        List<ZipItem> files = first.getFileList(folder.getRoot(), builder.getArtifacts(), builder.getExcludes(), builder.isDefaultExcludes(), builder.isCaseSensitive());
+        first.createPackage(folder.getRoot(), files, builder.buildMetadata(helper));
+
+        assertThat("Nothing to reuse on first build", first.getReusedEntries(), is(equalTo(0)));
+
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(new File(folder.getRoot(), "bin/sample.txt")))) {
+            writer.write("This file has changed");
+        }
+
+        ProGetPackager second = new ProGetPackager();
+        second.setEntryCache(cache);
+        File pkg = second.createPackage(folder.getRoot(), files, builder.buildMetadata(helper));
+
+        assertThat("Unchanged files reused", second.getReusedEntries(), is(equalTo(files.size() - 1)));
+
+        try (ZipFile zip = new ZipFile(pkg)) {
+            assertThat("Package contains every file", zip.size(), is(equalTo(files.size() + 1)));
+        }
+    }
+
     @Test
     public void unpackContentForwaredSlash() throws ZipException, IOException {
         UploadPackageBuilder builder = getExampleBuilder("bin/**/*.*", "logs/");
@@ -123,6 +304,266 @@ public class ProGetPackagerTests {
         assertThat("File have been unpacked", pkg.getParentFile().listFiles().length, is(greaterThan(fileCount)));
     }
 
+    @Test
+    public void parallelUnpackMatchesSequentialUnpack() throws IOException {
+        UploadPackageBuilder builder = getExampleBuilder("**/*.*", "");
+        List<ZipItem> files = packageUtils.getFileList(folder.getRoot(), builder.getArtifacts(), builder.getExcludes(), builder.isDefaultExcludes(), builder.isCaseSensitive());
+
+        File pkg = packageUtils.createPackage(folder.getRoot(), files, builder.buildMetadata(helper));
+
+        File sequential = new File(folder.newFolder("sequential"), pkg.getName());
+        File parallel = new File(folder.newFolder("parallel"), pkg.getName());
+        Files.copy(pkg, sequential);
+        Files.copy(pkg, parallel);
+
+        ProGetPackager.unpackContent(sequential, 1);
+        ProGetPackager.unpackContent(parallel, 4);
+
+        for (ZipItem file : files) {
+            File expected = new File(sequential.getParentFile(), file.getDestinationFile());
+            File actual = new File(parallel.getParentFile(), file.getDestinationFile());
+
+            assertThat("File has been unpacked", actual.isFile(), is(true));
+            assertThat("File content matches", Files.equal(actual, expected), is(true));
+        }
+    }
+
+    @Test
+    public void syncUnpackOnlyWritesChangedFiles() throws IOException {
+        UploadPackageBuilder builder = getExampleBuilder("bin/**/*.*", "");
+        List<ZipItem> files = packageUtils.getFileList(folder.getRoot(), builder.getArtifacts(), builder.getExcludes(), builder.isDefaultExcludes(), builder.isCaseSensitive());
+
+        File pkg = packageUtils.createPackage(folder.getRoot(), files, builder.buildMetadata(helper));
+        File unpacked = new File(folder.newFolder("sync"), pkg.getName());
+
+        PackageExtractor extractor = new PackageExtractor(1);
+        extractor.setSync(true);
+        extractor.setDeleteRemovedFiles(true);
+
+        Files.copy(pkg, unpacked);
+        extractor.extract(unpacked);
+        assertThat("All files written on first unpack", extractor.getSkippedFiles(), is(equalTo(0)));
+
+        Files.copy(pkg, unpacked);
+        extractor.extract(unpacked);
+        assertThat("Unchanged files skipped", extractor.getSkippedFiles(), is(equalTo(files.size() + 1)));
+
+        List<ZipItem> fewerFiles = packageUtils.getFileList(folder.getRoot(), builder.getArtifacts(), "**/*.log", builder.isDefaultExcludes(), builder.isCaseSensitive());
+        pkg = packageUtils.createPackage(folder.getRoot(), fewerFiles, builder.buildMetadata(helper));
+
+        Files.copy(pkg, unpacked);
+        extractor.extract(unpacked);
+        assertThat("Removed file deleted", extractor.getDeletedFiles(), is(equalTo(1)));
+        assertThat("Removed file deleted", new File(unpacked.getParentFile(), "bin/logs/sample.log").exists(), is(false));
+    }
+
+    @Test
+    public void syncOnlyDeletesFilesInsideFolder() throws IOException {
+        UploadPackageBuilder builder = getExampleBuilder("bin/*.data", "");
+        List<ZipItem> files = packageUtils.getFileList(folder.getRoot(), builder.getArtifacts(), builder.getExcludes(), builder.isDefaultExcludes(), builder.isCaseSensitive());
+
+        File pkg = packageUtils.createPackage(folder.getRoot(), files, builder.buildMetadata(helper));
+        File target = folder.newFolder("target");
+        File outside = new File(folder.getRoot(), "outside.txt");
+        createFile(outside, "Not part of any package");
+
+        // A manifest naming files outside the folder, as if it had been tampered with
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(new File(target, SyncManifest.FILE_NAME)))) {
+            out.writeInt(1);
+            out.writeInt(2);
+
+            for (String name : Arrays.asList("../outside.txt", outside.getAbsolutePath())) {
+                out.writeUTF(name);
+                out.writeLong(outside.length());
+                out.writeLong(outside.lastModified());
+                out.writeLong(0);
+            }
+        }
+
+        PackageExtractor extractor = new PackageExtractor(1);
+        extractor.setSync(true);
+        extractor.setDeleteRemovedFiles(true);
+        extractor.extract(pkg, target);
+
+        assertThat("Nothing deleted", extractor.getDeletedFiles(), is(equalTo(0)));
+        assertThat("File outside the folder kept", outside.exists(), is(true));
+    }
+
+    @Test
+    public void entryOutsideFolderIsNotExtracted() throws IOException {
+        File pkg = new File(folder.getRoot(), "escape.upack");
+
+        try (ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(pkg))) {
+            zip.putNextEntry(new ZipEntry("package/../../escaped.txt"));
+            zip.write("Should not be written".getBytes(StandardCharsets.UTF_8));
+            zip.closeEntry();
+        }
+
+        File target = folder.newFolder("escape");
+
+        try {
+            new PackageExtractor(1).extract(pkg, target);
+            fail("Entry outside the folder extracted");
+        } catch (IOException e) {
+            assertThat("Entry named", e.getMessage(), containsString("escaped.txt"));
+        }
+
+        assertThat("Nothing written outside the folder", new File(folder.getRoot().getParentFile(), "escaped.txt").exists(), is(false));
+    }
+
+    @Test
+    public void linkUnpackedContentFromCache() throws IOException {
+        UploadPackageBuilder builder = getExampleBuilder("bin/**/*.*", "");
+        List<ZipItem> files = packageUtils.getFileList(folder.getRoot(), builder.getArtifacts(), builder.getExcludes(), builder.isDefaultExcludes(), builder.isCaseSensitive());
+
+        File pkg = packageUtils.createPackage(folder.getRoot(), files, builder.buildMetadata(helper));
+        PackageCache cache = new PackageCache(folder.newFolder("cache"), 1024 * 1024);
+        File download = new File(cache.createTempFolder(), pkg.getName());
+
+        Files.copy(pkg, download);
+
+        PackageCache.CachedPackage cached = cache.put("Example", "", "ExamplePackage", "0.0.3", "pkg", download);
+        File tree = cache.getExtracted(cached, 1);
+
+        File linked = folder.newFolder("linked");
+        PackageLinker linker = new PackageLinker();
+        linker.link(tree, linked);
+
+        assertThat("All files linked or copied", linker.getLinkedFiles() + linker.getCopiedFiles(), is(equalTo(files.size() + 1)));
+        assertThat("Content matches package", Files.toString(new File(linked, "bin/logs/sample.log"), StandardCharsets.UTF_8),
+                is(Files.toString(new File(folder.getRoot(), "bin/logs/sample.log"), StandardCharsets.UTF_8)));
+
+        linker.link(tree, linked);
+        assertThat("Already linked files skipped", linker.getSkippedFiles(), is(equalTo(files.size() + 1)));
+
+        String original = Files.toString(new File(tree, "bin/logs/sample.log"), StandardCharsets.UTF_8);
+
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(new File(folder.getRoot(), "bin/logs/sample.log")))) {
+            writer.write("changed");
+        }
+
+        File changed = packageUtils.createPackage(folder.getRoot(), files, builder.buildMetadata(helper));
+        PackageExtractor extractor = new PackageExtractor(1);
+        extractor.setSync(true);
+        extractor.extract(changed, linked);
+
+        assertThat("Changed file extracted", Files.toString(new File(linked, "bin/logs/sample.log"), StandardCharsets.UTF_8), is("changed"));
+        assertThat("Cached content untouched", Files.toString(new File(tree, "bin/logs/sample.log"), StandardCharsets.UTF_8), is(original));
+        assertThat("Linked files compared by content", extractor.getSkippedFiles(), is(equalTo(files.size())));
+
+        cached.close();
+    }
+
+    @Test
+    public void damagedCacheContentIsExtractedAgain() throws IOException {
+        UploadPackageBuilder builder = getExampleBuilder("bin/**/*.*", "");
+        List<ZipItem> files = packageUtils.getFileList(folder.getRoot(), builder.getArtifacts(), builder.getExcludes(), builder.isDefaultExcludes(), builder.isCaseSensitive());
+
+        File pkg = packageUtils.createPackage(folder.getRoot(), files, builder.buildMetadata(helper));
+        PackageCache cache = new PackageCache(folder.newFolder("cache"), 1024 * 1024);
+        File download = new File(cache.createTempFolder(), pkg.getName());
+
+        Files.copy(pkg, download);
+
+        try (PackageCache.CachedPackage cached = cache.put("Example", "", "ExamplePackage", "0.0.3", "pkg", download)) {
+            File tree = cache.getExtracted(cached, 1);
+            File file = new File(tree, "bin/sample.txt");
+            String original = Files.toString(file, StandardCharsets.UTF_8);
+
+            // As a tool that makes a linked file writable and writes to it would
+            file.setWritable(true);
+            Files.write("damaged", file, StandardCharsets.UTF_8);
+
+            tree = cache.getExtracted(cached, 1);
+
+            assertThat("Damaged content extracted again", Files.toString(new File(tree, "bin/sample.txt"), StandardCharsets.UTF_8), is(original));
+        }
+    }
+
+    @Test
+    public void extractOverwritesFilesNotLinked() throws IOException {
+        UploadPackageBuilder builder = getExampleBuilder("bin/*.txt", "");
+        List<ZipItem> files = packageUtils.getFileList(folder.getRoot(), builder.getArtifacts(), builder.getExcludes(), builder.isDefaultExcludes(), builder.isCaseSensitive());
+
+        File pkg = packageUtils.createPackage(folder.getRoot(), files, builder.buildMetadata(helper));
+        File target = folder.newFolder("overwrite");
+        File file = new File(target, "bin/sample.txt");
+
+        new PackageExtractor(1).extract(pkg, target);
+        file.setExecutable(true);
+        Files.write("changed", file, StandardCharsets.UTF_8);
+
+        new PackageExtractor(1).extract(pkg, target);
+
+        assertThat("File written again", Files.toString(file, StandardCharsets.UTF_8), is(not("changed")));
+        assertThat("Permissions kept", file.canExecute(), is(true));
+    }
+
+    @Test
+    public void cacheOnlyEvictsContentNotInUse() throws IOException {
+        PackageCache cache = new PackageCache(folder.newFolder("cache"), 1);
+        File first = new File(cache.createTempFolder(), "first.upack");
+        File second = new File(cache.createTempFolder(), "second.upack");
+
+        Files.write("first package", first, StandardCharsets.UTF_8);
+        Files.write("second package", second, StandardCharsets.UTF_8);
+
+        PackageCache.CachedPackage inUse = cache.put("Example", "", "First", "1.0.0", "pkg", first);
+        cache.put("Example", "", "Second", "1.0.0", "pkg", second).close();
+
+        assertThat("Content in use is kept", inUse.getContent().isFile(), is(true));
+
+        inUse.close();
+
+        File third = new File(cache.createTempFolder(), "third.upack");
+        Files.write("third package", third, StandardCharsets.UTF_8);
+        cache.put("Example", "", "Third", "1.0.0", "pkg", third).close();
+
+        assertThat("Released content evicted", inUse.getContent().exists(), is(false));
+        assertThat("Evicted package not found", cache.get("Example", "", "First", "1.0.0", "pkg"), is(nullValue()));
+    }
+
+    @Test
+    public void fileSelectionMatchesAnt() throws IOException {
+        File root = folder.newFolder("ant");
+
+        for (String name : Arrays.asList("a/One.txt", "a/two.log", "a/b/Three.TXT", "a/b/c/four.txt", "A/upper.txt", "CVS/Entries", ".git/config",
+                "src/Main.java", "src/.svn/entries", "src/main/Other.JAVA", "notes.txt", "backup~")) {
+            createFile(new File(root, name), name);
+        }
+
+        String[][] selections = { { "**", "" }, { "**/*.txt", "" }, { "**/*.TXT, src/**", "**/b/**" }, { "a/", "**/*.log" },
+                { "*/*.txt, **/Main.java", "a/b/" }, { "A/**", "" }, { "a/One.txt", "" } };
+
+        for (String[] selection : selections) {
+            for (boolean defaultExcludes : new boolean[] { true, false }) {
+                for (boolean caseSensitive : new boolean[] { true, false }) {
+                    assertSameFilesAsAnt(root, selection[0], selection[1], defaultExcludes, caseSensitive);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void symbolicLinkCyclesAreNotFollowedForever() throws IOException {
+        File root = folder.newFolder("links");
+
+        for (String name : Arrays.asList("a/file.txt", "b/file.txt", "c/file.txt")) {
+            createFile(new File(root, name), name);
+        }
+
+        try {
+            java.nio.file.Files.createSymbolicLink(root.toPath().resolve("a/lb"), root.toPath().resolve("b"));
+            java.nio.file.Files.createSymbolicLink(root.toPath().resolve("b/la"), root.toPath().resolve("a"));
+            java.nio.file.Files.createSymbolicLink(root.toPath().resolve("c/self"), root.toPath().resolve("c"));
+        } catch (IOException | UnsupportedOperationException e) {
+            Assume.assumeNoException("Symbolic links not supported", e);
+        }
+
+        assertSameFilesAsAnt(root, "**", "", true, true);
+        assertSameFilesAsAnt(root, "**/file.txt", "**/la/**", true, false);
+    }
+
     private void verifyPackage(File pkg, int expectedFileCount) throws IOException, UnsupportedEncodingException, ZipException {
         try (ZipFile zip = new ZipFile(pkg)) {
             assertThat("Package file contains " + expectedFileCount + " entries", zip.size(), is(equalTo(expectedFileCount)));
@@ -148,6 +589,36 @@ public class ProGetPackagerTests {
         }
     }
 
+    private void assertSameFilesAsAnt(File root, String include, String exclude, boolean defaultExcludes, boolean caseSensitive) {
+        DirectoryScanner ant = new DirectoryScanner();
+        ant.setBasedir(root);
+        ant.setIncludes(include.split("\\s*,\\s*"));
+
+        if (!exclude.isEmpty()) {
+            ant.setExcludes(exclude.split("\\s*,\\s*"));
+        }
+
+        if (defaultExcludes) {
+            ant.addDefaultExcludes();
+        }
+
+        ant.setCaseSensitive(caseSensitive);
+        ant.scan();
+
+        List<String> expected = Arrays.asList(ant.getIncludedFiles());
+        List<String> actual = new ArrayList<>();
+
+        for (ZipItem item : packageUtils.getFileList(root, include, exclude, defaultExcludes, caseSensitive)) {
+            actual.add(item.getSourceFile());
+        }
+
+        Collections.sort(expected);
+        Collections.sort(actual);
+
+        assertThat("Same files as Ant for include '" + include + "', exclude '" + exclude + "', default excludes " + defaultExcludes
+                + ", case sensitive " + caseSensitive, actual, is(equalTo(expected)));
+    }
+
     private UploadPackageBuilder getExampleBuilder(String include, String exclude) {
         UploadPackageBuilder settings = new UploadPackageBuilder("Example", "andrew/sumner/proget", "ExamplePackage", "0.0.3", include);
         settings.setCaseSensitive(false);
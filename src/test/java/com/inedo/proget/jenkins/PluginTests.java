@@ -10,6 +10,8 @@ import static org.junit.Assert.assertThat;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
 
 import org.apache.commons.io.FileUtils;
 import org.junit.After;
@@ -117,6 +119,38 @@ public class PluginTests {
     }
 
 
+    @Test
+    public void performBatchDownload() throws Exception {
+        String downloadFolder = folder.getRoot().getAbsolutePath();
+        String unpackFolder = folder.newFolder("unpacked").getAbsolutePath();
+
+        FreeStyleProject project = jenkins.createFreeStyleProject();
+
+        project.getBuildersList().add(new DownloadPackagesBuilder(Arrays.asList(
+                new PackageDownload("Example", "andrew/sumner/proget", "ExamplePackage", "0.0.3", DownloadFormat.PACKAGE.getFormat(), downloadFolder),
+                new PackageDownload("Example", "andrew/sumner/proget", "ExamplePackage", "0.0.3", DownloadFormat.EXTRACT_CONTENT.getFormat(), unpackFolder))));
+
+        final HoldFileName progetFiles = new HoldFileName();
+
+        project.getBuildersList().add(new TestBuilder() {
+            @Override
+            public boolean perform(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener) throws InterruptedException, IOException {
+                progetFiles.fileName = build.getEnvironment(listener).expand("${PROGET_FILES}");
+                return true;
+            }
+        });
+
+        FreeStyleBuild build = project.scheduleBuild2(0).get();
+
+        assertThat("Result is successful", build.getResult() , is(Result.SUCCESS));
+
+        String log = FileUtils.readFileToString(build.getLogFile());
+        assertThat("Has logged download timings", log, containsString("Downloaded andrew/sumner/proget/ExamplePackage 0.0.3 in"));
+
+        assertThat("PROGET_FILES variable points to existing file", new File(downloadFolder, progetFiles.fileName).exists(), is(true));
+        assertThat("Package has been unpacked", new File(unpackFolder).list().length > 0, is(true));
+    }
+
     @Test
     public void performUpload() throws Exception {
         String feedName = "Example";
@@ -147,6 +181,81 @@ public class PluginTests {
         assertThat("Has logged ProGet actions", log, containsString("[ProGet]"));
     }
 
+    @Test
+    public void performBatchUpload() throws Exception {
+        FreeStyleProject project = jenkins.createFreeStyleProject();
+
+        project.getBuildersList().add(new TestBuilder() {
+            @Override
+            public boolean perform(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener) throws InterruptedException, IOException {
+                build.getWorkspace().child("one/XX.TXT").write("hello", "UTF-8");
+                build.getWorkspace().child("two/YY.TXT").write("world", "UTF-8");
+                return true;
+            }
+        });
+
+        project.getBuildersList().add(new UploadPackagesBuilder(Arrays.asList(
+                new PackageUpload("Example", "andrew/sumner/proget", "ExamplePackage", "0.0.${BUILD_NUMBER}", "[one]/*.TXT"),
+                new PackageUpload("Example", "andrew/sumner/proget", "OtherPackage", "0.0.${BUILD_NUMBER}", "[two]/*.TXT"))));
+
+        FreeStyleBuild build = project.scheduleBuild2(0).get();
+
+        assertThat("Result is successful", build.getResult() , is(Result.SUCCESS));
+
+        String log = FileUtils.readFileToString(build.getLogFile());
+        assertThat("Has logged single scan", log, containsString("Scanned workspace for 2 packages"));
+        assertThat("Has logged upload timings", log, containsString("Uploaded andrew/sumner/proget/OtherPackage 0.0.1 (1 files) in"));
+    }
+
+    @Test
+    public void metadataCacheServesConfigurationLists() throws Exception {
+        GlobalConfig.getProGetConfig().metadataCacheSeconds = 300;
+        FeedMetadataCache.get().clear();
+
+        List<String> groups = FeedMetadataCache.get().getGroupNames("Example");
+        List<String> packages = FeedMetadataCache.get().getPackageNames("Example", "andrew/sumner/proget");
+
+        assertThat("Group found", groups.contains("andrew/sumner/proget"), is(true));
+        assertThat("Package found", packages.contains("ExamplePackage"), is(true));
+
+        if (mockServer != null) {
+            mockServer.stop();
+            mockServer = null;
+
+            assertThat("Groups served from cache", FeedMetadataCache.get().getGroupNames("Example"), is(groups));
+            assertThat("Packages served from cache", FeedMetadataCache.get().getPackageNames("Example", "andrew/sumner/proget"), is(packages));
+        }
+    }
+
+    @Test
+    public void suggestNamesStartingWithTypedText() throws Exception {
+        PrefixIndex index = new PrefixIndex(new String[] { "2.0.0", "1.10.0", "1.2.0", "1.1.0" }, true);
+
+        assertThat("Versions matched in given order", index.find("1.1", 10), is(Arrays.asList("1.10.0", "1.1.0")));
+        assertThat("Matches limited", index.find("", 2), is(Arrays.asList("2.0.0", "1.10.0")));
+        assertThat("No match", index.find("3", 10).isEmpty(), is(true));
+
+        GlobalConfig.getProGetConfig().metadataCacheSeconds = 300;
+        FeedMetadataCache.get().clear();
+
+        assertThat("Package suggested ignoring case", FeedMetadataCache.get().findPackageNames("Example", "andrew/sumner/proget", "examplep"), is(Arrays.asList("ExamplePackage")));
+
+        // Requested the way the config page does, with the fields each text box depends on as query parameters
+        JenkinsRule.WebClient client = jenkins.createWebClient();
+        String download = "descriptorByName/" + DownloadPackageBuilder.class.getName() + "/";
+        String upload = "descriptorByName/" + UploadPackageBuilder.class.getName() + "/";
+        String group = "feedName=Example&groupName=andrew%2Fsumner%2Fproget";
+
+        String groups = client.goTo(upload + "autoCompleteGroupName?value=andrew&feedName=Example", "application/json").getWebResponse().getContentAsString();
+        String packages = client.goTo(download + "autoCompletePackageName?value=Ex&" + group, "application/json").getWebResponse().getContentAsString();
+        String versions = client.goTo(download + "autoCompleteVersion?value=&" + group + "&packageName=ExamplePackage", "application/json").getWebResponse().getContentAsString();
+
+        assertThat("Group suggested", groups, containsString("andrew/sumner/proget"));
+        assertThat("Package suggested", packages, containsString("ExamplePackage"));
+        assertThat("Latest suggested", versions, containsString("Latest"));
+        assertThat("Versions suggested", versions, containsString("0.0.1"));
+    }
+
     public void setEnvironmentVariables() throws IOException {
         EnvironmentVariablesNodeProperty prop = new EnvironmentVariablesNodeProperty();
         EnvVars envVars = prop.getEnvVars();
@@ -4,9 +4,11 @@ import java.io.File;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.URI;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.inedo.proget.api.ProGetConfig;
 
+import hidden.jth.org.apache.http.HttpEntityEnclosingRequest;
 import hidden.jth.org.apache.http.HttpException;
 import hidden.jth.org.apache.http.HttpRequest;
 import hidden.jth.org.apache.http.HttpResponse;
@@ -18,6 +20,7 @@ import hidden.jth.org.apache.http.impl.bootstrap.HttpServer;
 import hidden.jth.org.apache.http.impl.bootstrap.ServerBootstrap;
 import hidden.jth.org.apache.http.protocol.HttpContext;
 import hidden.jth.org.apache.http.protocol.HttpRequestHandler;
+import hidden.jth.org.apache.http.util.EntityUtils;
 
 /**
  * A Mocked server that replaces a live ProGet installation
@@ -28,6 +31,7 @@ public class MockServer {
     private HttpServer server = null;
     private HttpRequestHandler handler;
     private ProGetConfig config;
+    private final AtomicInteger uploads = new AtomicInteger();
 
     public MockServer() throws IOException {
         handler = new HttpHandler();
@@ -50,6 +54,11 @@ public class MockServer {
         return config;
     }
 
+    /** Number of packages received in full */
+    public int getUploads() {
+        return uploads.get();
+    }
+
     public void stop() {
         if (server != null) {
             server.stop();
@@ -83,6 +92,12 @@ public class MockServer {
                 break;
 
             case "/upack/Example/upload":
+                if (request instanceof HttpEntityEnclosingRequest) {
+                    // Throws if the body was cut short, so the upload is only counted if the whole package arrived
+                    EntityUtils.toByteArray(((HttpEntityEnclosingRequest) request).getEntity());
+                }
+
+                uploads.incrementAndGet();
                 response.setStatusCode(HttpStatus.SC_OK);
                 break;
 
@@ -101,6 +116,27 @@ public class MockServer {
 
                 break;
 
+            case "/upack/Example/packages":
+                if ("\"0.0.3\"".equals(getHeader(request, "If-None-Match"))) {
+                    response.setStatusCode(HttpStatus.SC_NOT_MODIFIED);
+                } else {
+                    response.setHeader("ETag", "\"0.0.3\"");
+                    response.setEntity(new StringEntity("{\"group\":\"andrew/sumner/proget\",\"name\":\"ExamplePackage\",\"latestVersion\":\"0.0.3\",\"versions\":[\"0.0.3\",\"0.0.1\"]}",
+                            ContentType.APPLICATION_JSON));
+                }
+
+                break;
+
+            case "/upack/Example/versions":
+                String versions = "[{\"group\":\"andrew/sumner/proget\",\"name\":\"ExamplePackage\",\"version\":\"0.0.3\"}";
+
+                if (uri.getQuery() == null || !uri.getQuery().contains("count=1")) {
+                    versions += ",{\"group\":\"andrew/sumner/proget\",\"name\":\"ExamplePackage\",\"version\":\"0.0.1\"}";
+                }
+
+                response.setEntity(new StringEntity(versions + "]", ContentType.APPLICATION_JSON));
+                break;
+
             case "/api/version":
                 response.setEntity(new StringEntity("ProGet vs ?"));
                 break;
@@ -110,5 +146,9 @@ public class MockServer {
                 response.setEntity(new StringEntity("API method " + method + " not found."));
             }
         }
+
+        private String getHeader(HttpRequest request, String name) {
+            return request.getFirstHeader(name) == null ? null : request.getFirstHeader(name).getValue();
+        }
     }
 }